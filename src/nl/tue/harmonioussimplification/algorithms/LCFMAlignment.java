@@ -9,9 +9,20 @@
  */
 package nl.tue.harmonioussimplification.algorithms;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import nl.tue.harmonioussimplification.algorithms.lcfm.Band;
+import nl.tue.harmonioussimplification.algorithms.lcfm.CompactSolutionTree;
+import nl.tue.harmonioussimplification.algorithms.lcfm.CompressedSolutionTree;
+import nl.tue.harmonioussimplification.algorithms.lcfm.DiscreteFrechet;
 import nl.tue.harmonioussimplification.algorithms.lcfm.DiscreteMatching;
 import nl.tue.harmonioussimplification.algorithms.lcfm.Instance;
-import nl.tue.harmonioussimplification.algorithms.lcfm.InstanceNode;
+import nl.tue.harmonioussimplification.algorithms.lcfm.MatchingCache;
 import nl.tue.harmonioussimplification.algorithms.lcfm.SolutionTree;
 import nl.tue.harmonioussimplification.algorithms.util.IsolineCarving;
 import nl.tue.harmonioussimplification.data.input.InputCoordinate;
@@ -20,6 +31,7 @@ import nl.tue.harmonioussimplification.data.input.InputMap;
 import nl.tue.harmonioussimplification.data.input.MatchInterval;
 import nl.tue.geometrycore.geometry.linear.PolyLine;
 import nl.tue.geometrycore.gui.sidepanel.SideTab;
+import nl.tue.geometrycore.util.DoubleUtil;
 
 public class LCFMAlignment {
 
@@ -29,6 +41,26 @@ public class LCFMAlignment {
     private double maxFilter = 1;
     private double absFilter = 1;
     private double maxDetour = 1;
+    // number of threads used to compute the matchings of the isoline pairs
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // restrict the matching to a corridor around the diagonal, which is widened while the matching runs along its border
+    // or a path leaving the band may have a smaller bottleneck
+    private boolean banded = false;
+    private int bandWidth = 16;
+    // check banded matchings against the discrete Frechet distance of the full grid, which takes quadratic time
+    private boolean validateBand = false;
+    // build the LCFM tree in primitive arrays with pooled nodes, rather than as a tree of objects;
+    // both give the same matching, the latter is kept to compare against
+    private boolean compactTree = true;
+    // compute Euclidean distances while matching instead of storing them for all pairs of vertices,
+    // and recover the matching by splitting rather than keeping the tree, at the cost of a logarithmic factor in time
+    private boolean linearSpace = false;
+    // find geodesic distances by triangulating the region between the isolines rather than through the visibility graph
+    private boolean triangulateGeodesics = false;
+    // keep the matchings of isoline pairs, such that changing only the filters does not match the isolines again;
+    // only the paths are kept, up to 64 MB
+    private boolean useCache = false;
+    private final MatchingCache cache = new MatchingCache(64L << 20);
 
     public boolean isTestReverse() {
         return testReverse;
@@ -78,8 +110,86 @@ public class LCFMAlignment {
         this.maxDetour = maxDetour;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public boolean isBanded() {
+        return banded;
+    }
+
+    public void setBanded(boolean banded) {
+        this.banded = banded;
+    }
+
+    public int getBandWidth() {
+        return bandWidth;
+    }
+
+    public void setBandWidth(int bandWidth) {
+        this.bandWidth = Math.max(1, bandWidth);
+    }
+
+    public boolean isValidateBand() {
+        return validateBand;
+    }
+
+    public void setValidateBand(boolean validateBand) {
+        this.validateBand = validateBand;
+    }
+
+    public boolean isCompactTree() {
+        return compactTree;
+    }
+
+    public void setCompactTree(boolean compactTree) {
+        this.compactTree = compactTree;
+    }
+
+    public boolean isLinearSpace() {
+        return linearSpace;
+    }
+
+    public void setLinearSpace(boolean linearSpace) {
+        this.linearSpace = linearSpace;
+    }
+
+    public boolean isTriangulateGeodesics() {
+        return triangulateGeodesics;
+    }
+
+    public void setTriangulateGeodesics(boolean triangulateGeodesics) {
+        this.triangulateGeodesics = triangulateGeodesics;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    public void setUseCache(boolean useCache) {
+        this.useCache = useCache;
+    }
+
+    public File getCacheDirectory() {
+        return cache.getDirectory();
+    }
+
+    // also store the matchings in the given directory, to reuse them across runs of the program; null to disable
+    public void setCacheDirectory(File directory) {
+        cache.setDirectory(directory);
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
     public void addConfigurationControls(SideTab tab) {
         tab.addCheckbox("Use geodesic distance", useGeodesicDistance, (e, v) -> useGeodesicDistance = v);
+        tab.addCheckbox("Triangulate for geodesics", triangulateGeodesics, (e, v) -> triangulateGeodesics = v);
         tab.addCheckbox("Test reverse", testReverse, (e, v) -> testReverse = v);
 
         tab.addCheckbox("Enable filters", enableFilters, (e, v) -> enableFilters = v);
@@ -95,6 +205,24 @@ public class LCFMAlignment {
         tab.makeSplit(2, 2);
         tab.addLabel("Max detour filter");
         tab.addDoubleSpinner(maxDetour, 1, Double.MAX_VALUE, 0.05, (e, v) -> maxDetour = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Threads");
+        tab.addIntegerSpinner(parallelism, 1, 256, 1, (e, v) -> parallelism = v);
+
+        tab.addCheckbox("Banded matching", banded, (e, v) -> banded = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Band width");
+        tab.addIntegerSpinner(bandWidth, 1, Integer.MAX_VALUE, 1, (e, v) -> bandWidth = v);
+
+        tab.addCheckbox("Validate band", validateBand, (e, v) -> validateBand = v);
+
+        tab.addCheckbox("Compact solution tree", compactTree, (e, v) -> compactTree = v);
+        tab.addCheckbox("Linear space matching", linearSpace, (e, v) -> linearSpace = v);
+
+        tab.addCheckbox("Cache matchings", useCache, (e, v) -> useCache = v);
+        tab.addButton("Clear cache", (e) -> cache.clear());
     }
 
     public void run(InputMap map) {
@@ -102,10 +230,45 @@ public class LCFMAlignment {
 
         double absThreshold = absFilter * map.distanceNorm();
 
+        if (parallelism > 1 && map.size() > 2) {
+            runParallel(map, absThreshold);
+        } else {
+            for (int i = 1; i < map.size(); i++) {
+                InputIsoline lower_iso = map.get(i - 1);
+                InputIsoline upper_iso = map.get(i);
+                assignMatching(match(lower_iso, upper_iso), absThreshold);
+            }
+        }
+    }
+
+    private void runParallel(InputMap map, double absThreshold) {
+        // the matchings are computed concurrently, largest pairs first,
+        // but assigned in order of the pairs as both pairs of an isoline add to the same match lists
+        List<Integer> order = new ArrayList();
         for (int i = 1; i < map.size(); i++) {
-            InputIsoline lower_iso = map.get(i - 1);
-            InputIsoline upper_iso = map.get(i);
-            match(lower_iso, upper_iso, absThreshold);
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong((Integer i) -> -(long) map.get(i - 1).size() * map.get(i).size()));
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<PairMatching>> futures = new ArrayList();
+            for (int i = 0; i < map.size(); i++) {
+                futures.add(null);
+            }
+            for (int i : order) {
+                InputIsoline lower_iso = map.get(i - 1);
+                InputIsoline upper_iso = map.get(i);
+                futures.set(i, pool.submit(() -> match(lower_iso, upper_iso)));
+            }
+            for (int i = 1; i < map.size(); i++) {
+                assignMatching(futures.get(i).get(), absThreshold);
+                futures.set(i, null);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new Error("matching of isolines failed", ex);
+        } finally {
+            pool.shutdownNow();
         }
     }
 
@@ -117,38 +280,134 @@ public class LCFMAlignment {
         }
     }
 
-    private void match(InputIsoline lower_iso, InputIsoline upper_iso, double absThreshold) {
+    private class PairMatching {
 
-        IsolineCarving<InputIsoline, InputCoordinate> carve = new IsolineCarving(lower_iso, upper_iso);
+        DiscreteMatching DM;
+        InputCoordinate lower_start, upper_start;
+        boolean reverse_upper;
+        double relativeThreshold;
+
+        private PairMatching(DiscreteMatching DM, InputCoordinate lower_start, InputCoordinate upper_start, boolean reverse_upper, double relativeThreshold) {
+            this.DM = DM;
+            this.lower_start = lower_start;
+            this.upper_start = upper_start;
+            this.reverse_upper = reverse_upper;
+            this.relativeThreshold = relativeThreshold;
+        }
+    }
+
+    private PairMatching match(InputIsoline lower_iso, InputIsoline upper_iso) {
+        if (!useCache) {
+            return computePair(lower_iso, upper_iso);
+        }
+
+        String key = cacheKey(lower_iso, upper_iso);
+        MatchingCache.Entry entry = cache.get(key);
+        PairMatching pair;
+        if (entry != null) {
+            pair = new PairMatching(entry.getMatching(),
+                    coordinateAt(lower_iso, entry.getLowerStart()),
+                    coordinateAt(upper_iso, entry.getUpperStart()),
+                    entry.isReverseUpper(),
+                    maxFilter * entry.getMatching().getMaxValue());
+        } else {
+            pair = computePair(lower_iso, upper_iso);
+            cache.put(key, new MatchingCache.Entry(pair.DM,
+                    indexOf(lower_iso, pair.lower_start),
+                    indexOf(upper_iso, pair.upper_start),
+                    pair.reverse_upper));
+        }
+        return pair;
+    }
+
+    private String cacheKey(InputIsoline lower_iso, InputIsoline upper_iso) {
+        // the filters are applied when assigning the matching, only what changes the matching itself is part of the key
+        // linear space only changes how the same matching is computed
+        MatchingCache.Key key = new MatchingCache.Key();
+        key.add(useGeodesicDistance).add(triangulateGeodesics).add(testReverse);
+        key.add(banded).add(banded ? bandWidth : 0);
+        for (InputIsoline iso : new InputIsoline[]{lower_iso, upper_iso}) {
+            key.add(iso.isCyclic()).add(iso.size());
+            for (InputCoordinate coord : iso) {
+                key.add(coord.getLocation().getX()).add(coord.getLocation().getY());
+            }
+        }
+        return key.finish();
+    }
 
-        DiscreteMatching DM = computeMatching(carve.pA, carve.pB);
-        double max_dist = 0;
-        for (InstanceNode n : DM.getMatching()) {
-            if (n.getValue() > max_dist) {
-                max_dist = n.getValue();
+    private static int indexOf(InputIsoline iso, InputCoordinate coord) {
+        int index = 0;
+        for (InputCoordinate c : iso) {
+            if (c == coord) {
+                return index;
             }
+            index++;
+        }
+        throw new Error("Coordinate is not on the isoline");
+    }
+
+    private static InputCoordinate coordinateAt(InputIsoline iso, int index) {
+        int i = 0;
+        for (InputCoordinate c : iso) {
+            if (i == index) {
+                return c;
+            }
+            i++;
+        }
+        throw new Error("Isoline has no coordinate at " + index);
+    }
+
+    private PairMatching computePair(InputIsoline lower_iso, InputIsoline upper_iso) {
+
+        IsolineCarving<InputIsoline, InputCoordinate> carve = new IsolineCarving(lower_iso, upper_iso);
+
+        // the full Euclidean distances are shared by both orientations, the reversed instance is a view on them;
+        // geodesic distances depend on the orientation, as the pockets are closed from start to start
+        Instance I = null, I_rev = null;
+        if (!banded && (useGeodesicDistance || !linearSpace)) {
+            I = computeInstance(carve.pA, carve.pB, Band.full(carve.pA.vertexCount(), carve.pB.vertexCount()));
         }
 
-        double max_dist_rev;
-        DiscreteMatching DM_rev;
+        boolean reverse = false;
         if (testReverse) {
-            carve.pB.reverse();
-            DM_rev = computeMatching(carve.pA, carve.pB);
-            max_dist_rev = 0;
-            for (InstanceNode n : DM_rev.getMatching()) {
-                if (n.getValue() > max_dist_rev) {
-                    max_dist_rev = n.getValue();
+            // the largest distance in an LCFM is the discrete Frechet distance, so only the better orientation needs its tree
+            double frechet, frechet_rev;
+            if (I == null && !useGeodesicDistance) {
+                frechet = DiscreteFrechet.compute(carve.pA, carve.pB, false, Double.POSITIVE_INFINITY);
+                frechet_rev = DiscreteFrechet.compute(carve.pA, carve.pB, true, frechet);
+            } else if (!useGeodesicDistance) {
+                frechet = DiscreteFrechet.compute(I, Double.POSITIVE_INFINITY);
+                frechet_rev = DiscreteFrechet.compute(I.reverse(), frechet);
+            } else {
+                Instance full = I != null ? I : computeInstance(carve.pA, carve.pB, Band.full(carve.pA.vertexCount(), carve.pB.vertexCount()));
+                PolyLine reversed = carve.pB.clone();
+                reversed.reverse();
+                Instance full_rev = computeInstance(carve.pA, reversed, Band.full(carve.pA.vertexCount(), reversed.vertexCount()));
+                if (I != null) {
+                    I_rev = full_rev;
                 }
+                frechet = DiscreteFrechet.compute(full, Double.POSITIVE_INFINITY);
+                frechet_rev = DiscreteFrechet.compute(full_rev, frechet);
             }
+            // ties go to the reversed orientation
+            reverse = frechet_rev <= frechet;
+        }
+
+        DiscreteMatching DM;
+        if (I != null) {
+            DM = computeMatching(!reverse ? I : I_rev != null ? I_rev : I.reverse());
         } else {
-            max_dist_rev = Double.POSITIVE_INFINITY;
-            DM_rev = null;
+            if (reverse) {
+                carve.pB.reverse();
+            }
+            DM = computeMatching(carve.pA, carve.pB);
         }
 
-        if (max_dist < max_dist_rev) {
-            assignMatching(DM, carve.startA, carve.startB, false, maxFilter * max_dist, absThreshold);
+        double max_dist = DM.getMaxValue();
+        if (reverse) {
+            return new PairMatching(DM, carve.startA, carve.endB, true, maxFilter * max_dist);
         } else {
-            assignMatching(DM_rev, carve.startA, carve.endB, true, maxFilter * max_dist_rev, absThreshold);
+            return new PairMatching(DM, carve.startA, carve.startB, false, maxFilter * max_dist);
         }
     }
 
@@ -225,20 +484,25 @@ public class LCFMAlignment {
 
     }
 
+    private void assignMatching(PairMatching pair, double absThreshold) {
+        assignMatching(pair.DM, pair.lower_start, pair.upper_start, pair.reverse_upper, pair.relativeThreshold, absThreshold);
+    }
+
     private void assignMatching(DiscreteMatching DM, InputCoordinate lower_start, InputCoordinate upper_start, boolean reverse_upper, double relativeThreshold, double absThreshold) {
 
         WalkData lower = new WalkData(lower_start, false);
         WalkData upper = new WalkData(upper_start, reverse_upper);
 
-        for (InstanceNode n : DM.getMatching()) {
+        for (int k = 0; k < DM.size(); k++) {
 
             // update to next vertex, if necessary
-            boolean lower_changed = lower.shiftVertex(n.getI());
-            boolean upper_changed = upper.shiftVertex(n.getJ());
+            boolean lower_changed = lower.shiftVertex(DM.getI(k));
+            boolean upper_changed = upper.shiftVertex(DM.getJ(k));
 
-            if (enableFilters && (n.getValue() > relativeThreshold
-                    || n.getValue() > absThreshold
-                    || n.getValue() > maxDetour * lower.coord.getLocation().distanceTo(upper.coord.getLocation()))) {
+            double value = DM.getValue(k);
+            if (enableFilters && (value > relativeThreshold
+                    || value > absThreshold
+                    || value > maxDetour * lower.coord.getLocation().distanceTo(upper.coord.getLocation()))) {
                 // dont match these!
                 lower.noMatch();
                 upper.noMatch();
@@ -255,15 +519,67 @@ public class LCFMAlignment {
     }
 
     private DiscreteMatching computeMatching(PolyLine lower_line, PolyLine upper_line) {
-        Instance I = new Instance(lower_line, upper_line);
-        if (useGeodesicDistance) {
-            I.computeGeodesicDistances(lower_line, upper_line);
-        } else {
-            I.computeEuclideanDistances(lower_line, upper_line);
+        int N = lower_line.vertexCount();
+        int M = upper_line.vertexCount();
+        if (!banded) {
+            return computeMatching(lower_line, upper_line, Band.full(N, M));
+        }
+
+        int width = bandWidth;
+        Band band = Band.diagonal(N, M, width);
+        DiscreteMatching DM = computeMatching(lower_line, upper_line, band);
+        while (!band.isFull() && (band.touches(DM) || !band.isBottleneck(lower_line, upper_line, DM.getMaxValue()))) {
+            // the band may have forced the matching, try again in a wider band around it:
+            // also when it stays clear of the border, but a path through the cells around the band may have a smaller bottleneck
+            width *= 2;
+            band = Band.around(DM, N, M, width);
+            DM = computeMatching(lower_line, upper_line, band);
+        }
+
+        if (validateBand) {
+            double frechet;
+            if (useGeodesicDistance) {
+                frechet = DiscreteFrechet.compute(computeInstance(lower_line, upper_line, Band.full(N, M)), Double.POSITIVE_INFINITY);
+            } else {
+                frechet = DiscreteFrechet.compute(lower_line, upper_line, false, Double.POSITIVE_INFINITY);
+            }
+            if (DM.getMaxValue() > frechet + DoubleUtil.EPS) {
+                throw new Error("Banded matching has bottleneck " + DM.getMaxValue() + " but the discrete Frechet distance is " + frechet);
+            }
+        }
+        return DM;
+    }
+
+    private DiscreteMatching computeMatching(PolyLine lower_line, PolyLine upper_line, Band band) {
+        if (linearSpace && !useGeodesicDistance) {
+            // geodesic distances need the visibility graph, which is quadratic anyway
+            CompressedSolutionTree T = new CompressedSolutionTree(lower_line, upper_line, band);
+            return new DiscreteMatching(T);
+        }
+
+        return computeMatching(computeInstance(lower_line, upper_line, band));
+    }
+
+    private DiscreteMatching computeMatching(Instance I) {
+        if (!compactTree) {
+            SolutionTree T = new SolutionTree(I);
+            T.finish();
+            return new DiscreteMatching(I, T);
         }
-        SolutionTree T = new SolutionTree(I);
+
+        CompactSolutionTree T = new CompactSolutionTree(I);
         T.finish();
         DiscreteMatching DM = new DiscreteMatching(I, T);
         return DM;
     }
+
+    private Instance computeInstance(PolyLine lower_line, PolyLine upper_line, Band band) {
+        Instance I = new Instance(lower_line, upper_line, band);
+        if (useGeodesicDistance) {
+            I.computeGeodesicDistances(lower_line, upper_line, triangulateGeodesics);
+        } else {
+            I.computeEuclideanDistances(lower_line, upper_line);
+        }
+        return I;
+    }
 }
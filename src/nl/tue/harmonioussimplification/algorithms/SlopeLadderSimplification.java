@@ -9,32 +9,65 @@
  */
 package nl.tue.harmonioussimplification.algorithms;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import nl.tue.harmonioussimplification.algorithms.slopeladders.collapse.CollapseMethod;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import nl.tue.harmonioussimplification.algorithms.slopeladders.collapse.CollapseMethodHarmonyLine;
 import nl.tue.harmonioussimplification.algorithms.slopeladders.collapse.CollapseMethodHarmonyLineDirectedHausdorff;
+import nl.tue.harmonioussimplification.algorithms.slopeladders.collapse.CollapseMethodHarmonyLineMinMax;
 import nl.tue.harmonioussimplification.algorithms.slopeladders.maintain.MapMaintainer;
 import nl.tue.harmonioussimplification.algorithms.slopeladders.maintain.MapMaintainerLCFM;
 import nl.tue.harmonioussimplification.algorithms.slopeladders.score.ScoreFunction;
 import nl.tue.harmonioussimplification.algorithms.slopeladders.score.ScoreFunctionSymmetricDifference;
+import nl.tue.harmonioussimplification.algorithms.util.UniformGrid;
 import nl.tue.harmonioussimplification.data.output.SlopeLadder;
 import nl.tue.harmonioussimplification.data.input.InputCoordinate;
 import nl.tue.harmonioussimplification.data.input.InputIsoline;
 import nl.tue.harmonioussimplification.data.input.InputMap;
 import nl.tue.harmonioussimplification.data.input.MatchInterval;
+import nl.tue.harmonioussimplification.data.output.CollapseLog;
+import nl.tue.harmonioussimplification.data.output.CollapseOperation;
 import nl.tue.harmonioussimplification.data.output.OutputCoordinate;
 import nl.tue.harmonioussimplification.data.output.OutputIsoline;
 import nl.tue.harmonioussimplification.data.output.OutputMap;
+import nl.tue.harmonioussimplification.data.output.SlopeLadderQueue;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.Rectangle;
 import nl.tue.geometrycore.gui.sidepanel.SideTab;
+import nl.tue.geometrycore.util.DoubleUtil;
 
 public class SlopeLadderSimplification {
 
     //private boolean checkIntersections = true;
     private int target = 50;
+    // optional level-of-detail targets, in decreasing order; when given, run() continues to the smallest one
+    private final List<Integer> targets = new ArrayList();
+    // number of threads used to reevaluate dirty ladders
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // collapse a set of independent ladders per round, within a factor of the cheapest cost
+    private boolean batched = false;
+    private double batchFactor = 1.5;
+    // optionally stop once the cheapest ladder exceeds a maximum cost, or maximum Hausdorff error
+    private boolean errorBound = false;
+    private boolean boundHausdorff = false;
+    private double maxError = 0.1;
+    // vertex floor for each isoline, unless set for the isoline itself
+    private int isolineMinimum = 3;
+    private final Map<InputIsoline, Integer> isolineMinima = new IdentityHashMap();
     // fixed settings for now...
     private final boolean normalize = true;
     private final ScoreFunction score = new ScoreFunctionSymmetricDifference();
-    private final CollapseMethod collapse = new CollapseMethodHarmonyLineDirectedHausdorff();
+    private CollapseMethodHarmonyLine collapse = new CollapseMethodHarmonyLineDirectedHausdorff();
     private final MapMaintainer mapper = new MapMaintainerLCFM();
 
     public void addConfigurationControls(SideTab tab) {
@@ -43,6 +76,34 @@ public class SlopeLadderSimplification {
         tab.makeSplit(2, 2);
         tab.addLabel("Target");
         tab.addIntegerSpinner(target, 0, Integer.MAX_VALUE, 1, (e, v) -> target = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Threads");
+        tab.addIntegerSpinner(parallelism, 1, 256, 1, (e, v) -> parallelism = v);
+
+        tab.addCheckbox("Batched rounds", batched, (e, v) -> batched = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Batch factor");
+        tab.addDoubleSpinner(batchFactor, 1, Double.MAX_VALUE, 0.1, (e, v) -> batchFactor = v);
+
+        tab.addCheckbox("Error bound", errorBound, (e, v) -> errorBound = v);
+        tab.addCheckbox("Bound Hausdorff error", boundHausdorff, (e, v) -> boundHausdorff = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Max error");
+        tab.addDoubleSpinner(maxError, 0, Double.MAX_VALUE, 0.05, (e, v) -> maxError = v);
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Isoline minimum");
+        tab.addIntegerSpinner(isolineMinimum, 3, Integer.MAX_VALUE, 1, (e, v) -> isolineMinimum = v);
+
+        tab.addCheckbox("Collapse placement within precision", isExactPlacement(), (e, v) -> setExactPlacement(v));
+        tab.addCheckbox("Adaptive collapse sampling", collapse.isAdaptive(), (e, v) -> collapse.setAdaptive(v));
+
+        tab.makeSplit(2, 2);
+        tab.addLabel("Sampling tolerance");
+        tab.addDoubleSpinner(collapse.getTolerance(), 0, Double.MAX_VALUE, 0.01, (e, v) -> collapse.setTolerance(v));
     }
 
     public int getTarget() {
@@ -53,10 +114,151 @@ public class SlopeLadderSimplification {
         this.target = target;
     }
 
+    public boolean isErrorBound() {
+        return errorBound;
+    }
+
+    public void setErrorBound(boolean errorBound) {
+        this.errorBound = errorBound;
+    }
+
+    public boolean isBoundHausdorff() {
+        return boundHausdorff;
+    }
+
+    public void setBoundHausdorff(boolean boundHausdorff) {
+        this.boundHausdorff = boundHausdorff;
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    public void setMaxError(double maxError) {
+        this.maxError = maxError;
+    }
+
+    public int getIsolineMinimum() {
+        return isolineMinimum;
+    }
+
+    public void setIsolineMinimum(int isolineMinimum) {
+        this.isolineMinimum = Math.max(3, isolineMinimum);
+    }
+
+    public int getIsolineMinimum(InputIsoline isoline) {
+        return isolineMinima.getOrDefault(isoline, isolineMinimum);
+    }
+
+    // takes effect at the next initialization
+    public void setIsolineMinimum(InputIsoline isoline, int minimum) {
+        isolineMinima.put(isoline, Math.max(3, minimum));
+    }
+
+    public void clearIsolineMinima() {
+        isolineMinima.clear();
+    }
+
+    public boolean isExactPlacement() {
+        return collapse instanceof CollapseMethodHarmonyLineMinMax;
+    }
+
+    // place the harmony line at the minimum over the whole sample line, up to a precision, rather than at the best of the samples
+    public void setExactPlacement(boolean exactPlacement) {
+        if (exactPlacement == isExactPlacement()) {
+            return;
+        }
+        CollapseMethodHarmonyLine method = exactPlacement ? new CollapseMethodHarmonyLineMinMax() : new CollapseMethodHarmonyLineDirectedHausdorff();
+        method.setAdaptive(collapse.isAdaptive());
+        method.setTolerance(collapse.getTolerance());
+        collapse = method;
+    }
+
+    public boolean isAdaptiveSampling() {
+        return collapse.isAdaptive();
+    }
+
+    // skip the samples that cannot beat the best one by more than the sampling tolerance, instead of trying all samples
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        collapse.setAdaptive(adaptiveSampling);
+    }
+
+    public double getSamplingTolerance() {
+        return collapse.getTolerance();
+    }
+
+    public void setSamplingTolerance(double samplingTolerance) {
+        collapse.setTolerance(samplingTolerance);
+    }
+
+    public List<Integer> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    public void setTargets(List<Integer> targets) {
+        this.targets.clear();
+        this.targets.addAll(targets);
+        this.targets.sort(Collections.reverseOrder());
+        nextSnapshot = 0;
+        snapshots.clear();
+    }
+
+    // the snapshots taken so far, by target
+    public Map<Integer, OutputMap> getSnapshots() {
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    public OutputMap getSnapshot(int target) {
+        return snapshots.get(target);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public boolean isBatched() {
+        return batched;
+    }
+
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    public double getBatchFactor() {
+        return batchFactor;
+    }
+
+    public void setBatchFactor(double batchFactor) {
+        this.batchFactor = Math.max(1, batchFactor);
+    }
+
     // cache
     private OutputMap map;
     private int vertexCount;
     private SlopeLadder best;
+    private final SlopeLadderQueue queue = new SlopeLadderQueue();
+    private final List<SlopeLadder> dirty = new ArrayList();
+    // spatial indices: current segments by their start, and the proposed geometry of the clean contractible ladders
+    private UniformGrid<OutputCoordinate> segments;
+    private UniformGrid<SlopeLadder> proposals;
+    // neighborhoods claimed by the ladders selected in the current round
+    private UniformGrid<double[]> claims;
+    // ladders each coordinate is part of; the ladder pointer of a coordinate is not kept up to date when ladders are split
+    private final IdentityHashMap<OutputCoordinate, List<SlopeLadder>> containing = new IdentityHashMap();
+    private final List<SlopeLadder> affected = new ArrayList();
+    private ForkJoinPool pool;
+    private final Map<Integer, OutputMap> snapshots = new LinkedHashMap();
+    private int nextSnapshot = 0;
+    private CollapseLog log;
+    // running maxima over the collapsed ladders: with an error bound, the bound is a budget for the whole run,
+    // so nothing is collapsed anymore once the running maximum exceeds it (e.g. after lowering the bound)
+    private double maxCollapsedCost;
+    private double maxCollapsedError;
+    private double maxCollapsedErrorGap;
 
     public OutputMap initialize(InputMap input) {
         clear();
@@ -64,17 +266,25 @@ public class SlopeLadderSimplification {
         // clone the output map
         map = new OutputMap();
 
-        HashMap<InputCoordinate, OutputCoordinate> fwdmap = new HashMap();
+        // dense ids for the input coordinates, to map them to their output counterparts
+        int n = 0;
+        for (InputIsoline iso : input) {
+            for (InputCoordinate coord : iso) {
+                coord.setIndex(n++);
+            }
+        }
+        OutputCoordinate[] fwdmap = new OutputCoordinate[n];
 
         for (InputIsoline iso : input) {
 
             OutputIsoline iso_out = new OutputIsoline(iso.isCyclic(), iso);
+            iso_out.setMinimumSize(getIsolineMinimum(iso));
             map.add(iso_out);
 
             for (InputCoordinate coord : iso) {
                 OutputCoordinate coord_out = new OutputCoordinate(coord.getLocation().clone(), iso_out, coord);
                 iso_out.addLast(coord_out);
-                fwdmap.put(coord, coord_out);
+                fwdmap[coord.getIndex()] = coord_out;
             }
         }
 
@@ -86,32 +296,35 @@ public class SlopeLadderSimplification {
                 }
 
                 SlopeLadder ladder = new SlopeLadder();
-                map.getLadders().add(ladder);
-
-                ladder.add(coord);
-                coord.setLadder(ladder);
-
-                OutputCoordinate next = coord.getCyclicNext();
-
-                for (MatchInterval mi : coord.getRepresentsFrom().getMatching()) {
-                    for (MatchInterval next_mi : next.getRepresentsFrom().getMatching()) {
-                        if (mi.getFirst().getCyclicPrevious() == next_mi.getLast()) {
-                            // opposite direction between isolines
-                            extendLadder(coord.getIsoline(), ladder, fwdmap.get(next_mi.getLast()), fwdmap.get(mi.getFirst()), fwdmap);
-                            Collections.reverse(ladder);
-                        } else if (mi.getLast().getCyclicNext() == next_mi.getFirst()) {
-                            // same direction between isolines
-                            extendLadder(coord.getIsoline(), ladder, fwdmap.get(mi.getLast()), fwdmap.get(next_mi.getFirst()), fwdmap);
-                            Collections.reverse(ladder);
-                        }
-                    }
-                }
+                addLadder(ladder);
+                buildLadder(ladder, coord, fwdmap);
             }
         }
 
         vertexCount = map.coordinateCount();
+        log = new CollapseLog(vertexCount);
+        maxCollapsedCost = 0;
+        maxCollapsedError = 0;
+        maxCollapsedErrorGap = 0;
+
+        for (SlopeLadder ladder : map.getLadders()) {
+            for (OutputCoordinate coord : ladder) {
+                addContaining(coord, ladder);
+            }
+        }
+
+        Rectangle box = map.getBoundingBox();
+        segments = new UniformGrid(box, vertexCount);
+        proposals = new UniformGrid(box, map.getLadders().size());
+        claims = new UniformGrid(box, vertexCount);
+        for (OutputIsoline iso : map) {
+            for (OutputCoordinate coord : iso) {
+                indexSegment(coord);
+            }
+        }
 
         computeBestSlopeLadder();
+        takeSnapshots(false);
 
         return map;
     }
@@ -120,60 +333,316 @@ public class SlopeLadderSimplification {
         return vertexCount;
     }
 
-    private void extendLadder(OutputIsoline prev_iso, SlopeLadder ladder, OutputCoordinate coord, OutputCoordinate next, HashMap<InputCoordinate, OutputCoordinate> fwdmap) {
-        ladder.add(coord);
-        coord.setLadder(ladder);
+    public double getMaximumCost() {
+        return maxCollapsedCost;
+    }
 
-        for (MatchInterval mi : coord.getRepresentsFrom().getMatching()) {
-            if (mi.getIsoline() == prev_iso.getRepresents()) {
-                continue;
+    public double getMaximumError() {
+        return maxCollapsedError;
+    }
+
+    // the largest amount by which the error of a collapsed ladder may exceed the best placement for it
+    public double getMaximumErrorGap() {
+        return maxCollapsedErrorGap;
+    }
+
+    // all collapses performed since initialization, to reconstruct the map at any intermediate vertex count
+    public CollapseLog getLog() {
+        return log;
+    }
+
+    private void buildLadder(SlopeLadder ladder, OutputCoordinate start, OutputCoordinate[] fwdmap) {
+        // depth-first extension along the matching, with an explicit stack
+        // the ladder is reversed after every extension: this is tracked by adding to either end of a deque
+        ArrayDeque<OutputCoordinate> coords = new ArrayDeque();
+        boolean reversed = false;
+
+        ArrayDeque<LadderFrame> stack = new ArrayDeque();
+        stack.push(new LadderFrame(null, start));
+        coords.addLast(start);
+        start.setLadder(ladder);
+
+        while (!stack.isEmpty()) {
+            LadderFrame frame = stack.peek();
+            LadderFrame extension = frame.advance(fwdmap);
+            if (extension == null) {
+                stack.pop();
+                if (!stack.isEmpty()) {
+                    reversed = !reversed;
+                }
+            } else {
+                if (reversed) {
+                    coords.addFirst(extension.coord);
+                } else {
+                    coords.addLast(extension.coord);
+                }
+                extension.coord.setLadder(ladder);
+                stack.push(extension);
             }
-            for (MatchInterval next_mi : next.getRepresentsFrom().getMatching()) {
-                if (mi.getFirst().getCyclicPrevious() == next_mi.getLast()) {
-                    // opposite direction between isolines
-                    extendLadder(coord.getIsoline(), ladder, fwdmap.get(next_mi.getLast()), fwdmap.get(mi.getFirst()), fwdmap);
-                    Collections.reverse(ladder);
-                } else if (mi.getLast().getCyclicNext() == next_mi.getFirst()) {
-                    // same direction between isolines
-                    extendLadder(coord.getIsoline(), ladder, fwdmap.get(mi.getLast()), fwdmap.get(next_mi.getFirst()), fwdmap);
-                    Collections.reverse(ladder);
+        }
+
+        if (reversed) {
+            coords.descendingIterator().forEachRemaining(ladder::add);
+        } else {
+            ladder.addAll(coords);
+        }
+    }
+
+    private static class LadderFrame {
+
+        // isoline from which this coordinate was reached, null for the start of the ladder
+        final OutputIsoline prev_iso;
+        final OutputCoordinate coord;
+        final OutputCoordinate next;
+        final List<MatchInterval> matching;
+        final List<MatchInterval> next_matching;
+        int i = 0, j = 0;
+
+        LadderFrame(OutputIsoline prev_iso, OutputCoordinate coord) {
+            this(prev_iso, coord, coord.getCyclicNext());
+        }
+
+        LadderFrame(OutputIsoline prev_iso, OutputCoordinate coord, OutputCoordinate next) {
+            this.prev_iso = prev_iso;
+            this.coord = coord;
+            this.next = next;
+            this.matching = coord.getRepresentsFrom().getMatching();
+            this.next_matching = next.getRepresentsFrom().getMatching();
+        }
+
+        // finds the next pair of match intervals that extends the ladder, or null if there is none left
+        LadderFrame advance(OutputCoordinate[] fwdmap) {
+            while (i < matching.size()) {
+                MatchInterval mi = matching.get(i);
+                if (prev_iso != null && mi.getIsoline() == prev_iso.getRepresents()) {
+                    i++;
+                    continue;
+                }
+                while (j < next_matching.size()) {
+                    MatchInterval next_mi = next_matching.get(j++);
+                    if (mi.getFirst().getCyclicPrevious() == next_mi.getLast()) {
+                        // opposite direction between isolines
+                        return new LadderFrame(coord.getIsoline(), fwdmap[next_mi.getLast().getIndex()], fwdmap[mi.getFirst().getIndex()]);
+                    } else if (mi.getLast().getCyclicNext() == next_mi.getFirst()) {
+                        // same direction between isolines
+                        return new LadderFrame(coord.getIsoline(), fwdmap[mi.getLast().getIndex()], fwdmap[next_mi.getFirst().getIndex()]);
+                    }
                 }
+                i++;
+                j = 0;
             }
+            return null;
         }
     }
 
+    private void addLadder(SlopeLadder ladder) {
+        map.getLadders().add(ladder);
+        queue.register(ladder);
+        // new ladders start out dirty
+        dirty.add(ladder);
+    }
+
+    private void markDirty(SlopeLadder ladder) {
+        if (queue.isRemoved(ladder)) {
+            // already collapsed
+            return;
+        }
+        if (!ladder.isDirty()) {
+            dirty.add(ladder);
+        }
+        ladder.setDirty();
+        queue.update(ladder);
+        proposals.remove(ladder);
+    }
+
+    private void addContaining(OutputCoordinate coord, SlopeLadder ladder) {
+        List<SlopeLadder> list = containing.get(coord);
+        if (list == null) {
+            list = new ArrayList(1);
+            containing.put(coord, list);
+        }
+        list.add(ladder);
+    }
+
+    private void indexSegment(OutputCoordinate coord) {
+        OutputCoordinate next = coord.getCyclicNext();
+        if (next == null) {
+            segments.remove(coord);
+        } else {
+            Vector p = coord.getLocation();
+            Vector q = next.getLocation();
+            insert(segments, coord, Math.min(p.getX(), q.getX()), Math.min(p.getY(), q.getY()), Math.max(p.getX(), q.getX()), Math.max(p.getY(), q.getY()));
+        }
+    }
+
+    private void indexLadder(SlopeLadder ladder) {
+        double[] box = null;
+        if (!ladder.isDirty() && ladder.isContractible() && !queue.isRemoved(ladder)) {
+            ladder.updateProposal();
+            box = proposedBox(ladder);
+        }
+        if (box == null) {
+            proposals.remove(ladder);
+        } else {
+            insert(proposals, ladder, box[0], box[1], box[2], box[3]);
+        }
+    }
+
+    private double[] proposedBox(SlopeLadder ladder) {
+        // covers the new geometry of the collapsable coordinates; if some stop being collapsable, it is still a superset
+        double[] box = null;
+        for (OutputCoordinate coord : ladder) {
+            if (coord.isCollapsable()) {
+                if (box == null) {
+                    box = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+                }
+                include(box, coord.getExtendedStart().getLocation());
+                include(box, coord.getCollapseLocation());
+                include(box, coord.getExtendedEnd().getLocation());
+            }
+        }
+        return box;
+    }
+
+    private void include(double[] box, Vector v) {
+        box[0] = Math.min(box[0], v.getX());
+        box[1] = Math.min(box[1], v.getY());
+        box[2] = Math.max(box[2], v.getX());
+        box[3] = Math.max(box[3], v.getY());
+    }
+
+    private <T> void insert(UniformGrid<T> grid, T item, double minX, double minY, double maxX, double maxY) {
+        // slack for the tolerance of the intersection tests
+        double slack = DoubleUtil.EPS * (1 + (maxX - minX) + (maxY - minY));
+        grid.insert(item, minX - slack, minY - slack, maxX + slack, maxY + slack);
+    }
+
+    private void checkSegment(OutputCoordinate coord, boolean in) {
+        OutputCoordinate next = coord.getCyclicNext();
+        if (next == null) {
+            return;
+        }
+        Vector p = coord.getLocation();
+        Vector q = next.getLocation();
+        affected.clear();
+        proposals.query(Math.min(p.getX(), q.getX()), Math.min(p.getY(), q.getY()), Math.max(p.getX(), q.getX()), Math.max(p.getY(), q.getY()), affected);
+        for (SlopeLadder ladder : affected) {
+            if (in) {
+                ladder.checkIn(coord);
+            } else {
+                ladder.checkOut(coord);
+            }
+            queue.update(ladder);
+        }
+        affected.clear();
+    }
+
     private void computeBestSlopeLadder() {
-        best = null;
-        for (SlopeLadder ladder : map.getLadders()) {
-            if (ladder.isDirty()) {
-                ladder.setContractible(collapse.compute(ladder));
-                if (ladder.isContractible()) {
-                    computeIntersections(ladder);
+        // only the dirty ladders need to be reevaluated, the others keep their place in the queue
+        if (parallelism > 1 && dirty.size() > 1) {
+            evaluateParallel();
+        } else {
+            for (SlopeLadder ladder : dirty) {
+                evaluate(ladder);
+            }
+        }
 
-                    if (ladder.doesNotCauseInteractions()) {
-                        ladder.setCost(score.compute(ladder, normalize));
+        for (SlopeLadder ladder : dirty) {
+            ladder.setClean();
+            indexLadder(ladder);
+            queue.update(ladder);
+        }
+        // ladders sharing a coordinate with a reevaluated ladder got a new collapse location there
+        for (SlopeLadder ladder : dirty) {
+            for (OutputCoordinate coord : ladder) {
+                for (SlopeLadder other : containing.get(coord)) {
+                    if (other != ladder && proposals.contains(other)) {
+                        indexLadder(other);
                     }
                 }
-                ladder.setClean();
             }
+        }
+        dirty.clear();
+
+        best = queue.peek();
+    }
+
+    private void evaluate(SlopeLadder ladder) {
+        ladder.setContractible(collapse.compute(ladder));
+        if (ladder.isContractible()) {
+            computeIntersections(ladder);
 
-            // test code for intersection checking
-//            if (ladder.isContractible() && ladder.doesNotCauseInteractions() != SlopeLadderUtil.doesNotCauseIntersections(map, ladder)) {
-//                System.err.println("DIFF?");
-//            }
-            if (ladder.isContractible() && ladder.doesNotCauseInteractions() && (best == null || ladder.getCost() < best.getCost())) {
-                best = ladder;
+            if (ladder.doesNotCauseInteractions()) {
+                ladder.setCost(score.compute(ladder, normalize));
             }
         }
+
+        // test code for intersection checking
+//        if (ladder.isContractible() && ladder.doesNotCauseInteractions() != SlopeLadderUtil.doesNotCauseIntersections(map, ladder)) {
+//            System.err.println("DIFF?");
+//        }
+    }
+
+    private void evaluateParallel() {
+        // evaluation writes the collapse locations of the ladder's coordinates, so a ladder that shares a coordinate
+        // with an earlier dirty ladder is deferred and evaluated afterwards in order, as in the sequential order
+        Set<OutputCoordinate> claimed = Collections.newSetFromMap(new IdentityHashMap());
+        List<Callable<Object>> tasks = new ArrayList();
+        List<SlopeLadder> deferred = new ArrayList();
+        for (SlopeLadder ladder : dirty) {
+            boolean disjoint = true;
+            for (OutputCoordinate coord : ladder) {
+                disjoint &= claimed.add(coord);
+            }
+            if (disjoint) {
+                tasks.add(Executors.callable(() -> evaluate(ladder)));
+            } else {
+                deferred.add(ladder);
+            }
+        }
+
+        invokeAll(tasks);
+
+        for (SlopeLadder ladder : deferred) {
+            evaluate(ladder);
+        }
+    }
+
+    private void invokeAll(List<Callable<Object>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        for (Future<Object> future : getPool().invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new Error("parallel task failed", ex);
+            }
+        }
+    }
+
+    private ForkJoinPool getPool() {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
     }
 
     private void computeIntersections(SlopeLadder ladder) {
         ladder.checkSelfIntersects();
         ladder.setIntersectionCount(0);
-        for (OutputIsoline iso : map) {
-            for (OutputCoordinate coord : iso) {
-                ladder.checkIn(coord);
-            }
+        ladder.updateProposal();
+        double[] box = proposedBox(ladder);
+        if (box == null) {
+            return;
+        }
+        List<OutputCoordinate> nearby = new ArrayList();
+        segments.query(box[0], box[1], box[2], box[3], nearby);
+        for (OutputCoordinate coord : nearby) {
+            ladder.checkIn(coord);
         }
     }
 
@@ -183,6 +652,16 @@ public class SlopeLadderSimplification {
 
     public void clear() {
         map = null;
+        best = null;
+        queue.clear();
+        dirty.clear();
+        segments = null;
+        proposals = null;
+        claims = null;
+        containing.clear();
+        snapshots.clear();
+        nextSnapshot = 0;
+        log = null;
     }
 
     public void run() {
@@ -190,8 +669,33 @@ public class SlopeLadderSimplification {
             return;
         }
 
-        while (vertexCount > target && best != null) {
-            step();
+        int finalTarget = targets.isEmpty() ? target : targets.get(targets.size() - 1);
+        while (vertexCount > finalTarget && best != null && !exceedsBound(best)) {
+            if (batched) {
+                round();
+            } else {
+                step();
+            }
+        }
+        // targets that cannot be reached get the final result
+        takeSnapshots(!canContinue());
+    }
+
+    private boolean exceedsBound(SlopeLadder ladder) {
+        if (!errorBound) {
+            return false;
+        }
+        double running = boundHausdorff ? maxCollapsedError : maxCollapsedCost;
+        double value = boundHausdorff ? ladder.getError() : ladder.getCost();
+        return Math.max(running, value) > maxError;
+    }
+
+    private void takeSnapshots(boolean all) {
+        while (nextSnapshot < targets.size() && (all || vertexCount <= targets.get(nextSnapshot))) {
+            int t = targets.get(nextSnapshot++);
+            if (!snapshots.containsKey(t)) {
+                snapshots.put(t, map.snapshot());
+            }
         }
     }
 
@@ -201,10 +705,163 @@ public class SlopeLadderSimplification {
             return;
         }
 
-        map.getLadders().remove(best);
+        // the ladders reflect the end of the log
+        log.seekEnd();
+
+        collapseLadder(best, Collections.emptyMap());
+
+        computeBestSlopeLadder();
+        takeSnapshots(false);
+    }
+
+    public void round() {
+        round(targets.isEmpty() ? target : targets.get(targets.size() - 1));
+    }
+
+    // collapses independent ladders until at most stop vertices remain
+    private void round(int stop) {
+
+        if (best == null) {
+            return;
+        }
+
+        log.seekEnd();
+
+        // greedily select cheap ladders whose neighborhoods (old and new geometry of every collapsing coordinate) are disjoint:
+        // their intersection counts and costs then remain valid when the others are collapsed
+        double limit = best.getCost() * batchFactor;
+        List<SlopeLadder> selected = new ArrayList();
+        List<SlopeLadder> rejected = new ArrayList();
+        List<double[]> claimed = new ArrayList();
+        List<double[]> conflicts = new ArrayList();
+        IdentityHashMap<OutputIsoline, Integer> removals = new IdentityHashMap();
+        int remaining = vertexCount;
+        while (!queue.isEmpty() && queue.peek().getCost() <= limit && remaining > stop) {
+            SlopeLadder ladder = queue.poll();
+            if (exceedsBound(ladder)) {
+                rejected.add(ladder);
+                continue;
+            }
+
+            List<double[]> boxes = new ArrayList();
+            IdentityHashMap<OutputIsoline, Integer> ladderRemovals = new IdentityHashMap();
+            boolean independent = true;
+            for (OutputCoordinate coord : ladder) {
+                if (!coord.isCollapsable()) {
+                    continue;
+                }
+                OutputIsoline iso = coord.getIsoline();
+                int removed = removals.getOrDefault(iso, 0) + ladderRemovals.getOrDefault(iso, 0) + 1;
+                if (iso.size() - removed < iso.getMinimumSize()) {
+                    // must remain collapsable when the others in the round are collapsed first
+                    independent = false;
+                    break;
+                }
+                ladderRemovals.put(iso, ladderRemovals.getOrDefault(iso, 0) + 1);
+
+                double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+                for (OutputCoordinate cc : coord.getExtendedCoordinates()) {
+                    include(box, cc.getLocation());
+                }
+                include(box, coord.getCollapseLocation());
+                conflicts.clear();
+                claims.query(box[0], box[1], box[2], box[3], conflicts);
+                if (!conflicts.isEmpty()) {
+                    independent = false;
+                    break;
+                }
+                boxes.add(box);
+            }
+
+            if (independent) {
+                selected.add(ladder);
+                for (double[] box : boxes) {
+                    insert(claims, box, box[0], box[1], box[2], box[3]);
+                    claimed.add(box);
+                }
+                for (OutputIsoline iso : ladderRemovals.keySet()) {
+                    removals.put(iso, removals.getOrDefault(iso, 0) + ladderRemovals.get(iso));
+                }
+                remaining -= boxes.size();
+            } else {
+                rejected.add(ladder);
+            }
+        }
+        for (double[] box : claimed) {
+            claims.remove(box);
+        }
+        for (SlopeLadder ladder : rejected) {
+            queue.update(ladder);
+        }
+        if (selected.isEmpty()) {
+            // every round makes progress, as a step would
+            if (!exceedsBound(best)) {
+                collapseLadder(best, Collections.emptyMap());
+                computeBestSlopeLadder();
+            }
+            takeSnapshots(false);
+            return;
+        }
+
+        // the represented parts of the collapsing coordinates can be recomputed upfront and in parallel,
+        // provided that the coordinates of a ladder do not share their neighborhoods either
+        Map<OutputCoordinate, CollapseOperation> prepared = new IdentityHashMap();
+        if (parallelism > 1) {
+            List<Callable<Object>> tasks = new ArrayList();
+            for (SlopeLadder ladder : selected) {
+                Set<OutputCoordinate> involved = Collections.newSetFromMap(new IdentityHashMap());
+                List<OutputCoordinate> collapsing = new ArrayList();
+                boolean disjoint = true;
+                for (OutputCoordinate coord : ladder) {
+                    if (coord.isCollapsable()) {
+                        for (OutputCoordinate cc : coord.getExtendedCoordinates()) {
+                            disjoint &= involved.add(cc);
+                        }
+                        collapsing.add(coord);
+                    }
+                }
+                if (disjoint) {
+                    for (OutputCoordinate coord : collapsing) {
+                        prepared.put(coord, new CollapseOperation(coord));
+                        tasks.add(Executors.callable(() -> mapper.compute(coord)));
+                    }
+                }
+            }
+            invokeAll(tasks);
+        }
+
+        // take the selected ladders out first, so collapsing one of them cannot mark another one dirty
+        for (SlopeLadder ladder : selected) {
+            queue.remove(ladder);
+        }
+        for (SlopeLadder ladder : selected) {
+            collapseLadder(ladder, prepared);
+            // a run to a snapshot target would have selected exactly the ladders collapsed so far
+            takeSnapshots(false);
+        }
+
+        computeBestSlopeLadder();
+        takeSnapshots(false);
+    }
+
+    private void collapseLadder(SlopeLadder ladder, Map<OutputCoordinate, CollapseOperation> prepared) {
+
+        if (ladder.getCost() > maxCollapsedCost) {
+            maxCollapsedCost = ladder.getCost();
+        }
+        if (ladder.getError() > maxCollapsedError) {
+            maxCollapsedError = ladder.getError();
+        }
+        if (ladder.getErrorGap() > maxCollapsedErrorGap) {
+            maxCollapsedErrorGap = ladder.getErrorGap();
+        }
+
+        map.getLadders().remove(ladder);
+        queue.remove(ladder);
+        proposals.remove(ladder);
         int numCollapse = 0;
         SlopeLadder newLadder = null;
-        for (OutputCoordinate coord : best) {
+        for (OutputCoordinate coord : ladder) {
             if (coord.isCollapsable()) {
                 numCollapse++;
 
@@ -214,49 +871,65 @@ public class SlopeLadderSimplification {
                 OutputCoordinate d = coord.getExtendedEnd();
 
                 // check out old three segments: a-b-c[-d]
-                for (SlopeLadder oldladder : map.getLadders()) {
-                    oldladder.checkOut(a);
-                    oldladder.checkOut(b);
-                    oldladder.checkOut(c);
-                }
+                checkSegment(a, false);
+                checkSegment(b, false);
+                checkSegment(c, false);
 
                 // we keep c and remove b
                 // recompute the represented parts
-                mapper.compute(coord);
+                CollapseOperation operation = prepared.get(coord);
+                if (operation == null) {
+                    operation = new CollapseOperation(coord);
+                    mapper.compute(coord);
+                }
 
                 if (a.getCyclicPrevious() != null && a.getCyclicPrevious().getLadder() != null) {
-                    a.getCyclicPrevious().getLadder().setDirty();
+                    markDirty(a.getCyclicPrevious().getLadder());
                 }
-                a.getLadder().setDirty();
-                c.getLadder().setDirty();
+                markDirty(a.getLadder());
+                markDirty(c.getLadder());
                 if (d.getLadder() != null) {
-                    d.getLadder().setDirty();
+                    markDirty(d.getLadder());
                 }
                 c.setLocation(b.getCollapseLocation());
                 b.getIsoline().remove(b);
+                operation.finish();
+                log.add(operation);
+
+                segments.remove(b);
+                indexSegment(a);
+                indexSegment(c);
+                // the new geometry of ladders through the neighborhood may have changed along
+                OutputCoordinate[] around = {a.getCyclicPrevious(), a, c, d};
+                for (OutputCoordinate x : around) {
+                    if (x != null && containing.containsKey(x)) {
+                        for (SlopeLadder other : containing.get(x)) {
+                            if (proposals.contains(other)) {
+                                indexLadder(other);
+                            }
+                        }
+                    }
+                }
 
                 // check in new three segments: a-c[-d]
-                for (SlopeLadder oldladder : map.getLadders()) {
-                    oldladder.checkIn(a);
-                    oldladder.checkIn(c);
-                }
+                checkSegment(a, true);
+                checkSegment(c, true);
 
             } else {
                 if (newLadder == null) {
                     newLadder = new SlopeLadder();
-                    map.getLadders().add(newLadder);
+                    addLadder(newLadder);
                     newLadder.setDirty();
                 }
                 newLadder.add(coord);
+                addContaining(coord, newLadder);
             }
         }
 
         vertexCount -= numCollapse;
-
-        computeBestSlopeLadder();
     }
 
     public boolean canContinue() {
-        return map != null && best != null;
+        return map != null && best != null && !exceedsBound(best);
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import nl.tue.geometrycore.geometry.linear.PolyLine;
+
+public class Band {
+
+    // staircase region of the N x M grid: row i covers the columns lo[i] up to hi[i]
+    // both bounds are non-decreasing and consecutive rows overlap, so every cell but (0,0) has a predecessor inside
+    protected int N, M;
+    private int[] lo, hi;
+    private long[] offset;
+    private long size;
+
+    private Band(int N, int M, int[] lo, int[] hi) {
+        this.N = N;
+        this.M = M;
+        this.lo = lo;
+        this.hi = hi;
+        offset = new long[N];
+        size = 0;
+        for (int i = 0; i < N; i++) {
+            offset[i] = size;
+            size += hi[i] - lo[i] + 1;
+        }
+    }
+
+    public static Band full(int N, int M) {
+        int[] lo = new int[N];
+        int[] hi = new int[N];
+        for (int i = 0; i < N; i++) {
+            lo[i] = 0;
+            hi[i] = M - 1;
+        }
+        return new Band(N, M, lo, hi);
+    }
+
+    // corridor around the proportional diagonal from (0,0) to (N-1,M-1)
+    public static Band diagonal(int N, int M, int width) {
+        int[] pmin = new int[N];
+        int[] pmax = new int[N];
+        for (int i = 0; i < N; i++) {
+            pmin[i] = (int) Math.round((double) i * (M - 1) / Math.max(1, N - 1));
+        }
+        for (int i = 0; i < N - 1; i++) {
+            pmax[i] = Math.max(pmin[i], pmin[i + 1] - 1);
+        }
+        pmax[N - 1] = M - 1;
+        return around(N, M, pmin, pmax, width);
+    }
+
+    // corridor around a monotone path through the grid, such as a matching computed in a narrower band
+    public static Band around(DiscreteMatching path, int N, int M, int width) {
+        int[] pmin = new int[N];
+        int[] pmax = new int[N];
+        for (int i = 0; i < N; i++) {
+            pmin[i] = M - 1;
+            pmax[i] = 0;
+        }
+        for (int k = 0; k < path.size(); k++) {
+            int i = path.getI(k);
+            int j = path.getJ(k);
+            pmin[i] = Math.min(pmin[i], j);
+            pmax[i] = Math.max(pmax[i], j);
+        }
+        return around(N, M, pmin, pmax, width);
+    }
+
+    private static Band around(int N, int M, int[] pmin, int[] pmax, int width) {
+        width = Math.max(1, width);
+        int[] lo = new int[N];
+        int[] hi = new int[N];
+        for (int i = 0; i < N; i++) {
+            lo[i] = i == 0 ? 0 : Math.max(0, pmin[i] - width);
+            hi[i] = i == N - 1 ? M - 1 : Math.min(M - 1, pmax[i] + width);
+            if (i > 0) {
+                lo[i] = Math.max(lo[i - 1], Math.min(lo[i], hi[i - 1]));
+                hi[i] = Math.max(hi[i - 1], hi[i]);
+            }
+        }
+        return new Band(N, M, lo, hi);
+    }
+
+    public int getN() {
+        return N;
+    }
+
+    public int getM() {
+        return M;
+    }
+
+    public int getLow(int i) {
+        return lo[i];
+    }
+
+    public int getHigh(int i) {
+        return hi[i];
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == (long) N * M;
+    }
+
+    // whether the cells can be stored in an array, see index
+    public boolean isIndexable() {
+        return size <= Integer.MAX_VALUE;
+    }
+
+    public boolean contains(int i, int j) {
+        return 0 <= i && i < N && lo[i] <= j && j <= hi[i];
+    }
+
+    // position of the cell in a row-major array of the band, or -1 if the cell lies outside
+    public int index(int i, int j) {
+        return contains(i, j) ? (int) (offset[i] + j - lo[i]) : -1;
+    }
+
+    // checks whether the path runs along the border of the band, that is, whether the band may have restricted it
+    public boolean touches(DiscreteMatching path) {
+        for (int k = 0; k < path.size(); k++) {
+            int i = path.getI(k);
+            int j = path.getJ(k);
+            if (outside(i, j - 1) || outside(i, j + 1) || outside(i - 1, j) || outside(i + 1, j)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // checks whether no path leaving the band can have a smaller bottleneck than the given one:
+    // such a path enters the cells outside through (i,hi[i]+1) or through (i,j) for lo[i-1] <= j < lo[i],
+    // so it suffices that these are at least as far apart; geodesic distances are never shorter than Euclidean ones
+    public boolean isBottleneck(PolyLine C1, PolyLine C2, double bottleneck) {
+        for (int i = 0; i < N; i++) {
+            if (hi[i] + 1 < M && C1.vertex(i).distanceTo(C2.vertex(hi[i] + 1)) < bottleneck) {
+                return false;
+            }
+            for (int j = i == 0 ? lo[i] : lo[i - 1]; j < lo[i]; j++) {
+                if (C1.vertex(i).distanceTo(C2.vertex(j)) < bottleneck) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean outside(int i, int j) {
+        return 0 <= i && i < N && 0 <= j && j < M && !contains(i, j);
+    }
+}
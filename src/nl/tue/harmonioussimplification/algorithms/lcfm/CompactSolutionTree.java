@@ -0,0 +1,579 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import java.util.Arrays;
+import nl.tue.geometrycore.util.DoubleUtil;
+
+public class CompactSolutionTree {
+
+    // the same tree as SolutionTree, stored in primitive arrays
+    // nodes and shortcuts are pooled records, recycled as soon as they are removed or their branch dies,
+    // so apart from the distances only the pruned tree and the two rows of the working boundary are kept
+    private static final int NONE = -1;
+    private static final int ROOT = 0;
+    // direction of a node from its predecessor, also used as bits for the children of a node
+    private static final byte UP = 1, DIAGONAL = 2, RIGHT = 4;
+    // the lists of incoming shortcuts, cf. Incoming
+    private static final int INC_UP = 0, INC_RIGHT = 1, INC_DIAGUP = 2, INC_DIAGRIGHT = 3;
+
+    private Instance I;
+    private int N, M;
+    private Band band;
+    private int next_i, next_j;
+
+    // nodes, with the free ones linked through pred
+    private int[] node_i, node_j;
+    private double[] node_value;
+    private int[] pred;
+    private byte[] dir, children;
+    private int[] sc_up, sc_right;
+    private int[] incs; // heads of the four lists of each node
+    private int node_count, node_free, node_live, node_peak;
+    // nodes of the previous and the current row by column, and the first node of the next row
+    private int[] prev_row, cur_row;
+    private int next_first;
+
+    // shortcuts, linked into the incoming list of their target
+    private int[] sc_from, sc_to, sc_prev, sc_next;
+    private double[] sc_max;
+    private byte[] sc_inc;
+    private int sc_count, sc_free;
+
+    private int[] chain = new int[16];
+
+    public CompactSolutionTree(Instance I) {
+        this.I = I;
+        N = I.N;
+        M = I.M;
+        band = I.getBand();
+        init();
+    }
+
+    private void init() {
+        int capacity = 4 * (N + M);
+        node_i = new int[capacity];
+        node_j = new int[capacity];
+        node_value = new double[capacity];
+        pred = new int[capacity];
+        dir = new byte[capacity];
+        children = new byte[capacity];
+        sc_up = new int[capacity];
+        sc_right = new int[capacity];
+        incs = new int[4 * capacity];
+        node_count = node_live = node_peak = 0;
+        node_free = NONE;
+
+        sc_from = new int[capacity];
+        sc_to = new int[capacity];
+        sc_prev = new int[capacity];
+        sc_next = new int[capacity];
+        sc_max = new double[capacity];
+        sc_inc = new byte[capacity];
+        sc_count = 0;
+        sc_free = NONE;
+
+        prev_row = new int[M];
+        cur_row = new int[M];
+        prev_row[0] = newNode(0, 0);
+        for (int j = 1; j <= band.getHigh(0); j++) {
+            prev_row[j] = newNode(0, j);
+            link(prev_row[j - 1], prev_row[j], UP);
+        }
+
+        // as in SolutionTree, the first column is a chain from the start: a node in it has its right child while its row is processed
+        next_first = NONE;
+        if (1 < N && band.getLow(1) == 0) {
+            next_first = newNode(1, 0);
+            link(prev_row[0], next_first, RIGHT);
+        }
+
+        next_i = 1;
+        next_j = firstColumn(1);
+        if (next_i < N) {
+            startRow();
+        }
+    }
+
+    private int firstColumn(int i) {
+        return i < N ? Math.max(1, band.getLow(i - 1)) : 1;
+    }
+
+    private int lastColumn(int i) {
+        return Math.min(M - 1, band.getHigh(i) + 1);
+    }
+
+    private void startRow() {
+        if (next_first != NONE) {
+            cur_row[0] = next_first;
+            next_first = NONE;
+            if (next_i + 1 < N && band.getLow(next_i + 1) == 0) {
+                next_first = newNode(next_i + 1, 0);
+                link(cur_row[0], next_first, RIGHT);
+            }
+        }
+    }
+
+    private void endRow() {
+        if (band.getHigh(next_i - 1) == M - 1) {
+            // the top node of the previous row cannot get any more children,
+            // unlike SolutionTree it is pruned if it has none, so that its branch is not kept alive
+            int top = prev_row[M - 1];
+            next_j = M;
+            if (children[top] == 0 && top != ROOT) {
+                killBranch(top);
+            }
+        }
+
+        int[] row = prev_row;
+        prev_row = cur_row;
+        cur_row = row;
+        next_i++;
+        next_j = firstColumn(next_i);
+        if (next_i < N) {
+            startRow();
+        }
+    }
+
+    private int getNode(int i, int j) {
+        if (!band.contains(i, j)) {
+            return NONE;
+        } else if (i == next_i) {
+            return cur_row[j];
+        } else {
+            return prev_row[j];
+        }
+    }
+
+    private int newNode(int i, int j) {
+        int node;
+        if (node_free != NONE) {
+            node = node_free;
+            node_free = pred[node];
+        } else {
+            if (node_count == pred.length) {
+                growNodes();
+            }
+            node = node_count++;
+        }
+        node_i[node] = i;
+        node_j[node] = j;
+        node_value[node] = I.getValue(i, j);
+        pred[node] = NONE;
+        dir[node] = children[node] = 0;
+        sc_up[node] = sc_right[node] = NONE;
+        for (int k = 0; k < 4; k++) {
+            incs[4 * node + k] = NONE;
+        }
+        node_live++;
+        node_peak = Math.max(node_peak, node_live);
+        return node;
+    }
+
+    private void freeNode(int node) {
+        pred[node] = node_free;
+        node_free = node;
+        node_live--;
+    }
+
+    private void growNodes() {
+        int capacity = 2 * pred.length;
+        node_i = Arrays.copyOf(node_i, capacity);
+        node_j = Arrays.copyOf(node_j, capacity);
+        node_value = Arrays.copyOf(node_value, capacity);
+        pred = Arrays.copyOf(pred, capacity);
+        dir = Arrays.copyOf(dir, capacity);
+        children = Arrays.copyOf(children, capacity);
+        sc_up = Arrays.copyOf(sc_up, capacity);
+        sc_right = Arrays.copyOf(sc_right, capacity);
+        incs = Arrays.copyOf(incs, 4 * capacity);
+    }
+
+    private double value(int node) {
+        return node_value[node];
+    }
+
+    // lexicographic order on (i,j)
+    private boolean after(int a, int b) {
+        return node_i[a] > node_i[b] || (node_i[a] == node_i[b] && node_j[a] > node_j[b]);
+    }
+
+    private boolean onWorkingBoundary(int node) {
+        // NB: next_i and next_j indicate the latest filled position
+        if (node_j[node] >= next_j) {
+            return node_i[node] >= next_i - 1;
+        } else {
+            return node_i[node] >= next_i;
+        }
+    }
+
+    private int outdegree(int node) {
+        return Integer.bitCount(children[node]);
+    }
+
+    private void link(int parent, int node, byte direction) {
+        pred[node] = parent;
+        dir[node] = direction;
+        children[parent] |= direction;
+    }
+
+    private void expandTree(int i, int j) {
+        int node = NONE;
+        if (band.contains(i, j)) {
+            node = newNode(i, j);
+            cur_row[j] = node;
+        }
+        int down = getNode(i, j - 1);
+        int diagonal = getNode(i - 1, j - 1);
+        int left = getNode(i - 1, j);
+
+        if (node != NONE) {
+            int best = down;
+            byte direction = UP;
+
+            if (diagonal != NONE && (best == NONE || better(diagonal, best))) {
+                best = diagonal;
+                direction = DIAGONAL;
+            }
+
+            if (left != NONE && (best == NONE || better(left, best))) {
+                best = left;
+                direction = RIGHT;
+            }
+
+            link(best, node, direction);
+        }
+
+        if (down != NONE) {
+            ensureUp(down);
+        }
+
+        if (left != NONE) {
+            ensureRight(left);
+        }
+
+        if (node != NONE) {
+            makeShortcuts(node, down, diagonal, left);
+        }
+
+        if (diagonal != NONE && children[diagonal] == 0) {
+            killBranch(diagonal);
+        }
+
+        if (next_j >= lastColumn(next_i)) {
+            endRow();
+        } else {
+            next_j++;
+        }
+    }
+
+    private int ensureUp(int node) {
+        if (sc_up[node] != NONE) {
+            return sc_up[node];
+        }
+        int length = 0;
+        int from = node;
+        chain = push(chain, length++, from);
+        while (pred[from] != ROOT && outdegree(pred[from]) == 1 && sc_up[pred[from]] == NONE) {
+            from = pred[from];
+            chain = push(chain, length++, from);
+        }
+        for (int k = length - 1; k >= 0; k--) {
+            int down = chain[k];
+            int p = pred[down];
+            if (p == ROOT) {
+                sc_up[down] = newShortcut(down, p, INC_RIGHT, value(down));
+            } else if (outdegree(p) == 1) {
+                int with = sc_up[p];
+                sc_up[down] = newShortcut(down, sc_to[with], sc_inc[with], Math.max(value(down), sc_max[with]));
+            } else {
+                sc_up[down] = newShortcut(down, p, INC_RIGHT, value(down));
+            }
+        }
+        return sc_up[node];
+    }
+
+    private int ensureRight(int node) {
+        if (sc_right[node] != NONE) {
+            return sc_right[node];
+        }
+        int length = 0;
+        int from = node;
+        chain = push(chain, length++, from);
+        while (pred[from] != ROOT && outdegree(pred[from]) == 1 && sc_right[pred[from]] == NONE) {
+            from = pred[from];
+            chain = push(chain, length++, from);
+        }
+        for (int k = length - 1; k >= 0; k--) {
+            int left = chain[k];
+            int p = pred[left];
+            if (p == ROOT) {
+                sc_right[left] = newShortcut(left, p, INC_UP, value(left));
+            } else if (outdegree(p) == 1) {
+                int with = sc_right[p];
+                sc_right[left] = newShortcut(left, sc_to[with], sc_inc[with], Math.max(value(left), sc_max[with]));
+            } else {
+                sc_right[left] = newShortcut(left, p, INC_UP, value(left));
+            }
+        }
+        return sc_right[node];
+    }
+
+    private void makeShortcuts(int node, int down, int diagonal, int left) {
+        if (dir[node] == UP) {
+            int with = sc_up[down];
+            sc_up[node] = newShortcut(node, sc_to[with], sc_inc[with], Math.max(value(node), sc_max[with]));
+        } else if (dir[node] == DIAGONAL) {
+            if ((children[diagonal] & RIGHT) == 0 && diagonal != ROOT) {
+                int with = ensureRight(diagonal);
+                sc_right[node] = newShortcut(node, sc_to[with], sc_inc[with], Math.max(value(node), sc_max[with]));
+            } else {
+                sc_right[node] = newShortcut(node, diagonal, INC_DIAGRIGHT, value(node));
+            }
+
+            if ((children[diagonal] & UP) == 0 && diagonal != ROOT) {
+                int with = ensureUp(diagonal);
+                sc_up[node] = newShortcut(node, sc_to[with], sc_inc[with], Math.max(value(node), sc_max[with]));
+            } else {
+                sc_up[node] = newShortcut(node, diagonal, INC_DIAGUP, value(node));
+            }
+        } else {
+            int with = sc_right[left];
+            sc_right[node] = newShortcut(node, sc_to[with], sc_inc[with], Math.max(value(node), sc_max[with]));
+        }
+    }
+
+    private void killBranch(int diagonal) {
+        int dead = diagonal;
+        int alive = pred[diagonal];
+        release(dead);
+        while (outdegree(alive) == 1 && alive != ROOT) {
+            children[alive] = 0;
+            freeNode(dead);
+            dead = alive;
+            alive = pred[alive];
+            release(dead);
+        }
+
+        // alive is the branching node, dead is its now dead child
+        byte direction = dir[dead];
+        freeNode(dead);
+        children[alive] &= ~direction;
+        if (alive == ROOT) {
+            // nothing extends beyond the root
+        } else if (direction == UP) {
+            extend(alive, (children[alive] & DIAGONAL) != 0 ? INC_DIAGUP : INC_RIGHT, true);
+        } else if (direction == DIAGONAL) {
+            if ((children[alive] & UP) != 0 && (children[alive] & RIGHT) != 0) {
+                // no extensions needed
+            } else if ((children[alive] & UP) != 0) {
+                extend(alive, INC_UP, false);
+            } else {
+                extend(alive, INC_RIGHT, true);
+            }
+        } else {
+            extend(alive, (children[alive] & DIAGONAL) != 0 ? INC_DIAGRIGHT : INC_UP, false);
+        }
+    }
+
+    // extends the shortcuts in the given list of alive with its up or right shortcut, or removes those no longer needed
+    private void extend(int alive, int list, boolean up) {
+        int s = incs[4 * alive + list];
+        incs[4 * alive + list] = NONE;
+        while (s != NONE) {
+            int next = sc_next[s];
+            int from = sc_from[s];
+            if (outdegree(from) > 1 || onWorkingBoundary(from)) {
+                int with = up ? ensureUp(alive) : ensureRight(alive);
+                sc_to[s] = sc_to[with];
+                sc_inc[s] = sc_inc[with];
+                sc_max[s] = Math.max(sc_max[s], sc_max[with]);
+                register(s);
+            } else {
+                if (up) {
+                    sc_up[from] = NONE;
+                } else {
+                    sc_right[from] = NONE;
+                }
+                free(s);
+            }
+            s = next;
+        }
+    }
+
+    // frees the shortcuts of a dead node; those ending at it come from its dead descendants and are already freed
+    // the node itself is freed once it is no longer needed to continue the kill
+    private void release(int node) {
+        if (sc_up[node] != NONE) {
+            unlink(sc_up[node]);
+            free(sc_up[node]);
+            sc_up[node] = NONE;
+        }
+        if (sc_right[node] != NONE) {
+            unlink(sc_right[node]);
+            free(sc_right[node]);
+            sc_right[node] = NONE;
+        }
+    }
+
+    private int newShortcut(int from, int to, int inc, double max) {
+        int s;
+        if (sc_free != NONE) {
+            s = sc_free;
+            sc_free = sc_next[s];
+        } else {
+            if (sc_count == sc_from.length) {
+                growShortcuts();
+            }
+            s = sc_count++;
+        }
+        sc_from[s] = from;
+        sc_to[s] = to;
+        sc_inc[s] = (byte) inc;
+        sc_max[s] = max;
+        register(s);
+        return s;
+    }
+
+    private void register(int s) {
+        int head = 4 * sc_to[s] + sc_inc[s];
+        sc_prev[s] = NONE;
+        sc_next[s] = incs[head];
+        if (incs[head] != NONE) {
+            sc_prev[incs[head]] = s;
+        }
+        incs[head] = s;
+    }
+
+    private void unlink(int s) {
+        if (sc_prev[s] == NONE) {
+            incs[4 * sc_to[s] + sc_inc[s]] = sc_next[s];
+        } else {
+            sc_next[sc_prev[s]] = sc_next[s];
+        }
+        if (sc_next[s] != NONE) {
+            sc_prev[sc_next[s]] = sc_prev[s];
+        }
+    }
+
+    private void free(int s) {
+        sc_next[s] = sc_free;
+        sc_free = s;
+    }
+
+    private void growShortcuts() {
+        int capacity = 2 * sc_from.length;
+        sc_from = Arrays.copyOf(sc_from, capacity);
+        sc_to = Arrays.copyOf(sc_to, capacity);
+        sc_prev = Arrays.copyOf(sc_prev, capacity);
+        sc_next = Arrays.copyOf(sc_next, capacity);
+        sc_max = Arrays.copyOf(sc_max, capacity);
+        sc_inc = Arrays.copyOf(sc_inc, capacity);
+    }
+
+    private static int[] push(int[] stack, int length, int value) {
+        if (length == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * length);
+        }
+        stack[length] = value;
+        return stack;
+    }
+
+    private boolean better(int A, int B) {
+        // check if A is strictly better than B (lower max to ECA)
+        double maxA = 0;
+        double maxB = 0;
+        int wA = A;
+        int wB = B;
+
+        if (pred[A] == B) {
+            return false;
+        }
+
+        if (pred[B] == A) {
+            return value(B) > 0;
+        }
+
+        if (pred[B] == pred[A]) {
+            return value(A) < value(B);
+        }
+
+        while (wA != wB) {
+            if (after(wA, wB)) {
+                // walk A down one shortcut (right shortcut)
+                int p = pred[wA];
+                if (sc_right[wA] == NONE && p != ROOT && sc_right[p] == NONE) {
+                    maxA = Math.max(maxA, value(wA));
+                    wA = p;
+                } else if (sc_right[wA] == NONE) {
+                    maxA = Math.max(maxA, Math.max(value(wA), p == ROOT ? 0 : sc_max[sc_right[p]]));
+                    wA = p == ROOT ? p : sc_to[sc_right[p]];
+                } else {
+                    maxA = Math.max(maxA, sc_max[sc_right[wA]]);
+                    wA = sc_to[sc_right[wA]];
+                }
+            } else {
+                // walk B down one shortcut (up shortcut)
+                int p = pred[wB];
+                if (sc_up[wB] == NONE && p != ROOT && sc_up[p] == NONE) {
+                    maxB = Math.max(maxB, value(wB));
+                    wB = p;
+                } else if (sc_up[wB] == NONE) {
+                    maxB = Math.max(maxB, Math.max(value(wB), p == ROOT ? 0 : sc_max[sc_up[p]]));
+                    wB = p == ROOT ? p : sc_to[sc_up[p]];
+                } else {
+                    maxB = Math.max(maxB, sc_max[sc_up[wB]]);
+                    wB = sc_to[sc_up[wB]];
+                }
+            }
+        }
+
+        return maxA < maxB - DoubleUtil.EPS;
+    }
+
+    public boolean done() {
+        return next_i >= N;
+    }
+
+    public void step() {
+        if (!done()) {
+            expandTree(next_i, next_j);
+        }
+    }
+
+    public void finish() {
+        while (!done()) {
+            expandTree(next_i, next_j);
+        }
+    }
+
+    public Band getBand() {
+        return band;
+    }
+
+    // largest number of nodes kept at the same time
+    public int getPeakNodeCount() {
+        return node_peak;
+    }
+
+    // stores the matching from (0,0) to (N-1,M-1) in the finished tree
+    void tracePath(DiscreteMatching DM) {
+        int end = getNode(N - 1, M - 1);
+        int length = 0;
+        for (int node = end; node != NONE; node = pred[node]) {
+            length++;
+        }
+        DM.allocate(length);
+        for (int node = end; node != NONE; node = pred[node]) {
+            length--;
+            DM.set(length, node_i[node], node_j[node], node_value[node]);
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import java.util.Arrays;
+import nl.tue.geometrycore.geometry.linear.PolyLine;
+import nl.tue.geometrycore.util.DoubleUtil;
+
+public class CompressedSolutionTree {
+
+    // the same tree as SolutionTree for Euclidean distances, which are computed when a cell is reached
+    // a node that can no longer get children is removed if it has none, and spliced out if it has one,
+    // so apart from the root only the nodes of the working boundary and the branching nodes are kept: O(M) nodes
+    // the path is then recovered by splitting, as in Hirschberg's algorithm: a pass from a copy of the tree after row a
+    // up to row b marks every node with the column at which its path leaves the middle row m,
+    // and the path to that cell and the rest of the path are recovered from copies of the tree after rows a and m
+    // this takes O(N M log N) time, and keeps the path and one copy per level of the recursion: O(N + M log N) memory
+    private static final int NONE = -1;
+    private static final int ROOT = 0;
+    // direction of a node from its predecessor, also the slot of a child of a node
+    private static final byte UP = 0, DIAGONAL = 1, RIGHT = 2;
+
+    private PolyLine C1, C2;
+    private int N, M;
+    private Band band;
+    private int next_i, next_j;
+
+    // nodes, with the free ones linked through parent
+    private int[] node_i, node_j;
+    private double[] node_value;
+    // the parent is the nearest ancestor that is kept, the edge maximum the largest value after it up to the node
+    private int[] parent;
+    private double[] edge_max;
+    // direction of the node from its predecessor, and the slot of its branch among the children of its parent
+    private byte[] dir, slot;
+    private int[] children; // three slots per node
+    // column of the last cell in the tagged row on the path to the node
+    private int[] tag;
+    private int tag_row;
+    // incremented when a node is freed, to recognize jumps to a node that is no longer there
+    private int[] generation;
+    // jumps from a node to an ancestor, for a path to the lower right (side 0) and to the upper left (side 1) of it:
+    // the ancestors in between are not on the working boundary and have no child on that side of the path,
+    // so they cannot be where the two paths meet; they cannot get children anymore, so the jumps remain valid
+    private int[] jump_to, jump_generation;
+    private byte[] jump_slot;
+    private double[] jump_max;
+    private int node_count, node_free;
+    // nodes of the previous and the current row by column, and the first node of the next row
+    private int[] prev_row, cur_row;
+    private int next_first;
+
+    private int[] chain = new int[16];
+    private double[] maxima = new double[16];
+    private double jump_found;
+
+    // the cells of the path, from the end backwards
+    private int[] path_i, path_j;
+    private int path_length;
+    private int entry;
+
+    public CompressedSolutionTree(PolyLine C1, PolyLine C2, Band band) {
+        this.C1 = C1;
+        this.C2 = C2;
+        N = C1.vertexCount();
+        M = C2.vertexCount();
+        this.band = band;
+        init();
+    }
+
+    private CompressedSolutionTree(CompressedSolutionTree T) {
+        C1 = T.C1;
+        C2 = T.C2;
+        N = T.N;
+        M = T.M;
+        band = T.band;
+        next_i = T.next_i;
+        next_j = T.next_j;
+
+        int capacity = Math.max(1, T.node_count);
+        node_i = Arrays.copyOf(T.node_i, capacity);
+        node_j = Arrays.copyOf(T.node_j, capacity);
+        node_value = Arrays.copyOf(T.node_value, capacity);
+        parent = Arrays.copyOf(T.parent, capacity);
+        edge_max = Arrays.copyOf(T.edge_max, capacity);
+        dir = Arrays.copyOf(T.dir, capacity);
+        slot = Arrays.copyOf(T.slot, capacity);
+        children = Arrays.copyOf(T.children, 3 * capacity);
+        tag = Arrays.copyOf(T.tag, capacity);
+        tag_row = T.tag_row;
+        generation = Arrays.copyOf(T.generation, capacity);
+        jump_to = Arrays.copyOf(T.jump_to, 2 * capacity);
+        jump_generation = Arrays.copyOf(T.jump_generation, 2 * capacity);
+        jump_slot = Arrays.copyOf(T.jump_slot, 2 * capacity);
+        jump_max = Arrays.copyOf(T.jump_max, 2 * capacity);
+        node_count = T.node_count;
+        node_free = T.node_free;
+
+        prev_row = T.prev_row.clone();
+        cur_row = T.cur_row.clone();
+        next_first = T.next_first;
+    }
+
+    private void init() {
+        int capacity = 4 * (N + M);
+        node_i = new int[capacity];
+        node_j = new int[capacity];
+        node_value = new double[capacity];
+        parent = new int[capacity];
+        edge_max = new double[capacity];
+        dir = new byte[capacity];
+        slot = new byte[capacity];
+        children = new int[3 * capacity];
+        tag = new int[capacity];
+        tag_row = N;
+        generation = new int[capacity];
+        jump_to = new int[2 * capacity];
+        jump_generation = new int[2 * capacity];
+        jump_slot = new byte[2 * capacity];
+        jump_max = new double[2 * capacity];
+        node_count = 0;
+        node_free = NONE;
+
+        prev_row = new int[M];
+        cur_row = new int[M];
+        prev_row[0] = newNode(0, 0);
+        for (int j = 1; j <= band.getHigh(0); j++) {
+            prev_row[j] = newNode(0, j);
+            link(prev_row[j - 1], prev_row[j], UP);
+        }
+
+        // as in SolutionTree, the first column is a chain from the start: a node in it has its right child while its row is processed
+        next_first = NONE;
+        if (1 < N && band.getLow(1) == 0) {
+            next_first = newNode(1, 0);
+            link(prev_row[0], next_first, RIGHT);
+        }
+
+        next_i = 1;
+        next_j = firstColumn(1);
+        if (next_i < N) {
+            startRow();
+        }
+    }
+
+    private int firstColumn(int i) {
+        return i < N ? Math.max(1, band.getLow(i - 1)) : 1;
+    }
+
+    private int lastColumn(int i) {
+        return Math.min(M - 1, band.getHigh(i) + 1);
+    }
+
+    private void startRow() {
+        if (next_first != NONE) {
+            cur_row[0] = next_first;
+            next_first = NONE;
+            if (next_i + 1 < N && band.getLow(next_i + 1) == 0) {
+                next_first = newNode(next_i + 1, 0);
+                link(cur_row[0], next_first, RIGHT);
+            }
+        }
+    }
+
+    private void endRow() {
+        if (band.getHigh(next_i - 1) == M - 1 && M > 1) {
+            // the top node of the previous row cannot get any more children
+            release(prev_row[M - 1]);
+        }
+
+        int[] row = prev_row;
+        prev_row = cur_row;
+        cur_row = row;
+        next_i++;
+        next_j = firstColumn(next_i);
+        if (next_i < N) {
+            startRow();
+        }
+    }
+
+    private int getNode(int i, int j) {
+        if (!band.contains(i, j)) {
+            return NONE;
+        } else if (i == next_i) {
+            return cur_row[j];
+        } else {
+            return prev_row[j];
+        }
+    }
+
+    private int newNode(int i, int j) {
+        int node;
+        if (node_free != NONE) {
+            node = node_free;
+            node_free = parent[node];
+        } else {
+            if (node_count == parent.length) {
+                growNodes();
+            }
+            node = node_count++;
+        }
+        node_i[node] = i;
+        node_j[node] = j;
+        node_value[node] = C1.vertex(i).distanceTo(C2.vertex(j));
+        parent[node] = NONE;
+        edge_max[node] = node_value[node];
+        dir[node] = slot[node] = 0;
+        children[3 * node] = children[3 * node + 1] = children[3 * node + 2] = NONE;
+        tag[node] = NONE;
+        jump_to[2 * node] = jump_to[2 * node + 1] = NONE;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        generation[node]++;
+        parent[node] = node_free;
+        node_free = node;
+    }
+
+    private void growNodes() {
+        int capacity = 2 * parent.length;
+        node_i = Arrays.copyOf(node_i, capacity);
+        node_j = Arrays.copyOf(node_j, capacity);
+        node_value = Arrays.copyOf(node_value, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        edge_max = Arrays.copyOf(edge_max, capacity);
+        dir = Arrays.copyOf(dir, capacity);
+        slot = Arrays.copyOf(slot, capacity);
+        children = Arrays.copyOf(children, 3 * capacity);
+        tag = Arrays.copyOf(tag, capacity);
+        generation = Arrays.copyOf(generation, capacity);
+        jump_to = Arrays.copyOf(jump_to, 2 * capacity);
+        jump_generation = Arrays.copyOf(jump_generation, 2 * capacity);
+        jump_slot = Arrays.copyOf(jump_slot, 2 * capacity);
+        jump_max = Arrays.copyOf(jump_max, 2 * capacity);
+    }
+
+    private void link(int pred, int node, byte direction) {
+        parent[node] = pred;
+        dir[node] = slot[node] = direction;
+        children[3 * pred + direction] = node;
+        if (node_i[node] == tag_row) {
+            tag[node] = node_j[node];
+        } else if (node_i[node] > tag_row) {
+            tag[node] = tag[pred];
+        }
+    }
+
+    private int childCount(int node) {
+        int count = 0;
+        for (int k = 0; k < 3; k++) {
+            if (children[3 * node + k] != NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the node cannot get any more children
+    private void release(int node) {
+        if (node == ROOT) {
+            return;
+        }
+        int count = childCount(node);
+        if (count == 0) {
+            kill(node);
+        } else if (count == 1) {
+            splice(node);
+        }
+    }
+
+    // removes a childless node, and its ancestors that no longer have children;
+    // these are not on the working boundary, as they precede the node lexicographically
+    private void kill(int node) {
+        int p = parent[node];
+        children[3 * p + slot[node]] = NONE;
+        freeNode(node);
+        if (p == ROOT) {
+            return;
+        }
+        int count = childCount(p);
+        if (count == 0) {
+            kill(p);
+        } else if (count == 1) {
+            splice(p);
+        }
+    }
+
+    private void splice(int node) {
+        int child = NONE;
+        for (int k = 0; k < 3; k++) {
+            if (children[3 * node + k] != NONE) {
+                child = children[3 * node + k];
+            }
+        }
+        int p = parent[node];
+        parent[child] = p;
+        edge_max[child] = Math.max(edge_max[child], edge_max[node]);
+        slot[child] = slot[node];
+        children[3 * p + slot[node]] = child;
+        freeNode(node);
+    }
+
+    private void expandTree(int i, int j) {
+        int node = NONE;
+        if (band.contains(i, j)) {
+            node = newNode(i, j);
+            cur_row[j] = node;
+        }
+        int down = getNode(i, j - 1);
+        int diagonal = getNode(i - 1, j - 1);
+        int left = getNode(i - 1, j);
+
+        if (node != NONE) {
+            int best = down;
+            byte direction = UP;
+
+            if (diagonal != NONE && (best == NONE || better(diagonal, best))) {
+                best = diagonal;
+                direction = DIAGONAL;
+            }
+
+            if (left != NONE && (best == NONE || better(left, best))) {
+                best = left;
+                direction = RIGHT;
+            }
+
+            link(best, node, direction);
+        }
+
+        if (diagonal != NONE) {
+            release(diagonal);
+        }
+
+        if (next_j >= lastColumn(next_i)) {
+            endRow();
+        } else {
+            next_j++;
+        }
+    }
+
+    // the slots in which the node may still get a child, as bits, while (next_i,next_j) is being processed
+    private int openSlots(int node) {
+        int i = node_i[node];
+        int j = node_j[node];
+        if (i > next_i || node == ROOT) {
+            return 7;
+        } else if (i == next_i) {
+            // the current row up to the cell below the one being processed
+            return j == next_j - 1 ? 7 : 6;
+        } else if (i == next_i - 1 && j >= next_j - 1) {
+            // the previous row from the cell diagonally below
+            return j == next_j - 1 ? 2 : 6;
+        } else {
+            return 0;
+        }
+    }
+
+    // whether a path from the node through the given child slot may meet a path on the given side there
+    private boolean mayMeet(int node, int slot, int side) {
+        int open = openSlots(node);
+        for (int k = side == 0 ? slot + 1 : 0; k < (side == 0 ? 3 : slot); k++) {
+            if (children[3 * node + k] != NONE || (open & (1 << k)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the nearest ancestor where a path on the given side may meet the path to the node, leaving the largest value
+    // after it up to the node in jump_found; the jumps of the nodes passed are shortened to it, as in a union-find
+    private int jump(int node, int side) {
+        int length = 0;
+        int at = node;
+        int to;
+        byte via;
+        while (true) {
+            chain = push(chain, length, at);
+            int k = 2 * at + side;
+            double max;
+            if (jump_to[k] != NONE && generation[jump_to[k]] == jump_generation[k]) {
+                to = jump_to[k];
+                via = jump_slot[k];
+                max = jump_max[k];
+            } else {
+                to = parent[at];
+                via = slot[at];
+                max = edge_max[at];
+            }
+            maxima = push(maxima, length, max);
+            length++;
+            if (mayMeet(to, via, side)) {
+                break;
+            }
+            at = to;
+        }
+
+        double max = 0;
+        for (int l = length - 1; l >= 0; l--) {
+            max = Math.max(max, maxima[l]);
+            int k = 2 * chain[l] + side;
+            jump_to[k] = to;
+            jump_generation[k] = generation[to];
+            jump_slot[k] = via;
+            jump_max[k] = max;
+        }
+        jump_found = max;
+        return to;
+    }
+
+    private static int[] push(int[] stack, int length, int value) {
+        if (length == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * length);
+        }
+        stack[length] = value;
+        return stack;
+    }
+
+    private static double[] push(double[] stack, int length, double value) {
+        if (length == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * length);
+        }
+        stack[length] = value;
+        return stack;
+    }
+
+    // lexicographic order on (i,j)
+    private boolean after(int a, int b) {
+        return node_i[a] > node_i[b] || (node_i[a] == node_i[b] && node_j[a] > node_j[b]);
+    }
+
+    // whether pred is the cell that precedes node in its path
+    private boolean precedes(int pred, int node) {
+        return pred == parent[node]
+                && node_i[pred] == node_i[node] - (dir[node] == UP ? 0 : 1)
+                && node_j[pred] == node_j[node] - (dir[node] == RIGHT ? 0 : 1);
+    }
+
+    private boolean better(int A, int B) {
+        // check if A is strictly better than B (lower max to ECA), with the same special cases as SolutionTree
+        if (precedes(B, A)) {
+            return false;
+        }
+
+        if (precedes(A, B)) {
+            return node_value[B] > 0;
+        }
+
+        if (parent[A] == parent[B] && precedes(parent[A], A) && precedes(parent[B], B)) {
+            return node_value[A] < node_value[B];
+        }
+
+        double maxA = 0;
+        double maxB = 0;
+        int wA = A;
+        int wB = B;
+        while (wA != wB) {
+            if (after(wA, wB)) {
+                // A lies to the upper left of B
+                wA = jump(wA, 0);
+                maxA = Math.max(maxA, jump_found);
+            } else {
+                wB = jump(wB, 1);
+                maxB = Math.max(maxB, jump_found);
+            }
+        }
+
+        return maxA < maxB - DoubleUtil.EPS;
+    }
+
+    // processes the rows up to the given one
+    private void finishRow(int row) {
+        while (next_i <= row) {
+            expandTree(next_i, next_j);
+        }
+    }
+
+    // marks the nodes from now on with the column at which their path leaves the given row
+    private void tagRow(int row) {
+        tag_row = row;
+        // the nodes of the first column that are already there, the start of their path is in that column
+        if (next_i < N && band.getLow(next_i) == 0 && next_i >= row) {
+            tag[cur_row[0]] = 0;
+        }
+        if (next_first != NONE && next_i + 1 >= row) {
+            tag[next_first] = 0;
+        }
+    }
+
+    // stores the path to (b,column) in the rows after a, given the tree T after row a, which is used up
+    private void trace(CompressedSolutionTree T, int a, int b, int column) {
+        if (b == a + 1) {
+            T.finishRow(b);
+            int node = T.prev_row[column];
+            addCell(b, T.node_j[node]);
+            while (T.dir[node] == UP) {
+                node = T.parent[node];
+                addCell(b, T.node_j[node]);
+            }
+            entry = T.dir[node] == DIAGONAL ? T.node_j[node] - 1 : T.node_j[node];
+            return;
+        }
+
+        int m = (a + b) / 2;
+        CompressedSolutionTree U = new CompressedSolutionTree(T);
+        U.tagRow(m);
+        U.finishRow(m);
+        CompressedSolutionTree middle = new CompressedSolutionTree(U);
+        U.finishRow(b);
+        int crossing = U.tag[U.prev_row[column]];
+        U = null;
+
+        trace(middle, m, b, column);
+        trace(T, a, m, crossing);
+    }
+
+    private void addCell(int i, int j) {
+        if (path_length == path_i.length) {
+            path_i = Arrays.copyOf(path_i, 2 * path_length);
+            path_j = Arrays.copyOf(path_j, 2 * path_length);
+        }
+        path_i[path_length] = i;
+        path_j[path_length] = j;
+        path_length++;
+    }
+
+    // stores the matching from (0,0) to (N-1,M-1); this uses up the tree
+    void tracePath(DiscreteMatching DM) {
+        path_i = new int[N + M];
+        path_j = new int[N + M];
+        path_length = 0;
+        entry = M - 1;
+        if (N > 1) {
+            trace(this, 0, N - 1, M - 1);
+        }
+        // the path starts along the first row
+        for (int j = entry; j >= 0; j--) {
+            addCell(0, j);
+        }
+
+        DM.allocate(path_length);
+        for (int k = 0; k < path_length; k++) {
+            int i = path_i[path_length - 1 - k];
+            int j = path_j[path_length - 1 - k];
+            DM.set(k, i, j, C1.vertex(i).distanceTo(C2.vertex(j)));
+        }
+        path_i = path_j = null;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import nl.tue.geometrycore.geometry.linear.PolyLine;
+
+public class DiscreteFrechet {
+
+    // the discrete Frechet distance, which is also the bottleneck of the LCFM, computed row by row in linear space
+    // returns infinity as soon as every partial matching exceeds the bound, as the distance then does too
+    private interface Distances {
+
+        double get(int i, int j);
+    }
+
+    public static double compute(Instance I, double bound) {
+        return compute(I.N, I.M, bound, (i, j) -> I.getValue(i, j));
+    }
+
+    public static double compute(PolyLine C1, PolyLine C2, boolean reverse, double bound) {
+        int M = C2.vertexCount();
+        return compute(C1.vertexCount(), M, bound, (i, j) -> C1.vertex(i).distanceTo(C2.vertex(reverse ? M - 1 - j : j)));
+    }
+
+    private static double compute(int N, int M, double bound, Distances D) {
+        double[] prev = new double[M];
+        double[] cur = new double[M];
+
+        prev[0] = D.get(0, 0);
+        for (int j = 1; j < M; j++) {
+            prev[j] = Math.max(prev[j - 1], D.get(0, j));
+        }
+        if (prev[0] > bound) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        for (int i = 1; i < N; i++) {
+            cur[0] = Math.max(prev[0], D.get(i, 0));
+            double row_min = cur[0];
+            for (int j = 1; j < M; j++) {
+                cur[j] = Math.max(Math.min(prev[j - 1], Math.min(prev[j], cur[j - 1])), D.get(i, j));
+                row_min = Math.min(row_min, cur[j]);
+            }
+            if (row_min > bound) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] row = prev;
+            prev = cur;
+            cur = row;
+        }
+        return prev[M - 1];
+    }
+}
@@ -9,63 +9,135 @@
  */
 package nl.tue.harmonioussimplification.algorithms.lcfm;
 
-import java.util.ArrayList;
-import java.util.List;
 import nl.tue.geometrycore.util.DoubleUtil;
 
 public class DiscreteMatching {
 
+    // the matched pairs (i[k],j[k]) in order from (0,0) to (N-1,M-1), filled from the back as the trees produce them
     private Instance I;
-    private List<InstanceNode> M = new ArrayList<InstanceNode>();
+    private int[] i, j;
+    private double[] value;
 
     public DiscreteMatching(Instance I, SolutionTree T) {
         this.I = I;
-        SolutionNode n = T.getNodes()[I.N - 1][I.M - 1];
-        while (n != null) {
-            M.add(0, n.getNode());
-            n = n.getPred();
+        SolutionNode end = T.getNode(I.N - 1, I.M - 1);
+        int length = 0;
+        for (SolutionNode n = end; n != null; n = n.getPred()) {
+            length++;
         }
+        allocate(length);
+        for (SolutionNode n = end; n != null; n = n.getPred()) {
+            length--;
+            set(length, n.getI(), n.getJ(), n.getValue());
+        }
+    }
+
+    public DiscreteMatching(Instance I, CompactSolutionTree T) {
+        this.I = I;
+        T.tracePath(this);
+    }
+
+    // matching of a tree that computed its own distances; it is verified against an instance passed to verify
+    public DiscreteMatching(CompressedSolutionTree T) {
+        T.tracePath(this);
+    }
+
+    // matching restored from a cache, filled by set
+    DiscreteMatching(int length) {
+        allocate(length);
+    }
+
+    private DiscreteMatching() {
+    }
+
+    // the same path, without a reference to the instance that holds all distances
+    DiscreteMatching withoutInstance() {
+        DiscreteMatching DM = new DiscreteMatching();
+        DM.i = i;
+        DM.j = j;
+        DM.value = value;
+        return DM;
+    }
+
+    void allocate(int length) {
+        i = new int[length];
+        j = new int[length];
+        value = new double[length];
     }
 
-    public List<InstanceNode> getMatching() {
-        return M;
+    void set(int k, int i, int j, double value) {
+        this.i[k] = i;
+        this.j[k] = j;
+        this.value[k] = value;
+    }
+
+    public int size() {
+        return i.length;
+    }
+
+    public int getI(int k) {
+        return i[k];
+    }
+
+    public int getJ(int k) {
+        return j[k];
+    }
+
+    public double getValue(int k) {
+        return value[k];
+    }
+
+    public double getMaxValue() {
+        double max = 0;
+        for (double v : value) {
+            max = Math.max(max, v);
+        }
+        return max;
     }
 
     public boolean verify() {
+        if (I == null) {
+            throw new Error("Matching has no instance to verify against");
+        }
+        return verify(I);
+    }
+
+    // verifies the matching against the distances of an instance, for matchings that do not keep theirs
+    public boolean verify(Instance I) {
         boolean correct = true;
-        for (int t1 = 0; t1 < M.size(); t1++) {
-            for (int t2 = t1 + 1; t2 < M.size(); t2++) {
-                correct = correct && verify(t1, t2);
+        for (int t1 = 0; t1 < size(); t1++) {
+            for (int t2 = t1 + 1; t2 < size(); t2++) {
+                correct = correct && verify(I, t1, t2);
             }
         }
         return correct;
     }
 
-    private boolean verify(int t1, int t2) {
+    private boolean verify(Instance I, int t1, int t2) {
         double match = 0;
         for (int t = t1; t <= t2; t++) {
-            match = Math.max(match, M.get(t).value);
+            match = Math.max(match, value[t]);
         }
 
-        int n0 = M.get(t1).i;
-        int m0 = M.get(t1).j;
-        int n = M.get(t2).i - n0 + 1;
-        int m = M.get(t2).j - m0 + 1;
+        int n0 = i[t1];
+        int m0 = j[t1];
+        int n = i[t2] - n0 + 1;
+        int m = j[t2] - m0 + 1;
 
         double[][] dfd = new double[n][m];
 
-        dfd[0][0] = I.values[n0][m0].value;
+        dfd[0][0] = I.getValue(n0, m0);
         for (int i = 1; i < n; i++) {
-            dfd[i][0] = Math.max(dfd[i - 1][0], I.values[n0 + i][m0].value);
+            dfd[i][0] = Math.max(dfd[i - 1][0], I.getValue(n0 + i, m0));
         }
         for (int j = 1; j < m; j++) {
-            dfd[0][j] = Math.max(dfd[0][j - 1], I.values[n0][m0 + j].value);
+            dfd[0][j] = Math.max(dfd[0][j - 1], I.getValue(n0, m0 + j));
         }
 
         for (int i = 1; i < n; i++) {
             for (int j = 1; j < m; j++) {
                 dfd[i][j] = Math.max(
-                        Math.min(dfd[i - 1][j - 1], Math.min(dfd[i][j - 1], dfd[i - 1][j])), I.values[n0 + i][m0 + j].value);
+                        Math.min(dfd[i - 1][j - 1], Math.min(dfd[i][j - 1], dfd[i - 1][j])), I.getValue(n0 + i, m0 + j));
             }
         }
 
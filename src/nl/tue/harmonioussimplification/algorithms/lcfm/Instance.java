@@ -13,12 +13,16 @@ import java.awt.Color;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import nl.tue.geometrycore.algorithms.dsp.DijkstrasShortestPath;
+import nl.tue.harmonioussimplification.algorithms.util.UniformGrid;
 import nl.tue.geometrycore.algorithms.hulls.ConvexHull;
 import nl.tue.geometrycore.geometry.BaseGeometry;
 import nl.tue.geometrycore.geometry.GeometryType;
@@ -37,22 +41,57 @@ import nl.tue.geometrycore.graphs.simple.SimpleVertex;
 import nl.tue.geometrycore.gui.GUIUtil;
 import nl.tue.geometrycore.io.ReadItem;
 import nl.tue.geometrycore.io.ipe.IPEReader;
+import nl.tue.geometrycore.util.DoubleUtil;
 
 public class Instance {
 
     protected int N, M;
-    protected InstanceNode[][] values;
+    // distances of the cells in the band, stored row-major; cells outside the band are at infinite distance
+    protected Band band;
+    protected double[] values;
+    // whether this is a view with the second curve reversed, that is, column j is looked up at M-1-j
+    private boolean reversed = false;
+    // geodesic distances depend on the orientation of the curves, so they cannot be viewed in reverse
+    private boolean geodesic = false;
 
     public Instance(PolyLine C1, PolyLine C2) {
+        this(C1, C2, Band.full(C1.vertexCount(), C2.vertexCount()));
+    }
+
+    public Instance(PolyLine C1, PolyLine C2, Band band) {
         N = C1.vertexCount();
         M = C2.vertexCount();
-        values = new InstanceNode[N][M];
+        this.band = band;
+        if (!band.isIndexable()) {
+            throw new Error("Instance cannot store the distances of " + band.size() + " cells");
+        }
+        values = new double[(int) band.size()];
+    }
+
+    private Instance(Instance I) {
+        N = I.N;
+        M = I.M;
+        band = I.band;
+        values = I.values;
+        reversed = !I.reversed;
+    }
+
+    // the instance for the second curve in reverse order, sharing the distances
+    public Instance reverse() {
+        if (!band.isFull()) {
+            throw new Error("Cannot reverse a banded instance");
+        }
+        if (geodesic) {
+            throw new Error("Cannot reverse an instance with geodesic distances");
+        }
+        return new Instance(this);
     }
 
     public void computeEuclideanDistances(PolyLine C1, PolyLine C2) {
+        int k = 0;
         for (int i = 0; i < N; i++) {
-            for (int j = 0; j < M; j++) {
-                values[i][j] = new InstanceNode(i, j, C1.vertex(i).distanceTo(C2.vertex(j)));
+            for (int j = band.getLow(i); j <= band.getHigh(i); j++) {
+                values[k++] = C1.vertex(i).distanceTo(C2.vertex(j));
             }
         }
     }
@@ -72,11 +111,9 @@ public class Instance {
         }
 
         boolean cyclemode = C1.firstVertex().distanceTo(C1.lastVertex()) < 0.1 * C1.perimeter();
-        List<Polygon> Ps;
-        if (cyclemode) {
-            Ps = computeCycles(C1, C2);
-        } else {
-            Ps = computePockets(C1, C2);
+        List<Pocket> Ps = new ArrayList();
+        for (Polygon P : cyclemode ? computeCycles(C1, C2) : computePockets(C1, C2)) {
+            Ps.add(new Pocket(P));
         }
 
         for (int i = 0; i < N; i++) {
@@ -129,24 +166,203 @@ public class Instance {
         return G;
     }
 
+    private static Graph computeShortestPathGraph(PolyLine C1, PolyLine C2) {
+
+        boolean cyclemode = C1.firstVertex().distanceTo(C1.lastVertex()) < 0.1 * C1.perimeter();
+        if (cyclemode) {
+            // the region between two cycles has a hole, which the triangulation does not handle
+            return null;
+        }
+
+        Graph G = new Graph();
+
+        int N = C1.vertexCount();
+        int M = C2.vertexCount();
+
+        for (int i = 0; i < N; i++) {
+            G.addVertex(C1.vertex(i));
+        }
+        for (int j = 0; j < M; j++) {
+            G.addVertex(C2.vertex(j));
+        }
+
+        // as in the visibility graph, consecutive vertices are always connected
+        Set<Long> added = new HashSet();
+        for (int i = 0; i + 1 < N; i++) {
+            addEdge(G, added, G.getVertices().get(i), G.getVertices().get(i + 1));
+        }
+        for (int j = 0; j + 1 < M; j++) {
+            addEdge(G, added, G.getVertices().get(N + j), G.getVertices().get(N + j + 1));
+        }
+
+        // any shortest path consists of edges of the shortest path trees inside the pockets, which meet at single vertices
+        // the end pockets are found on reversed copies of the curves, so their vertices are identified by index
+        List<int[]> indices = new ArrayList();
+        List<Polygon> pockets = computePockets(C1, C2, indices);
+        for (int p = 0; p < pockets.size(); p++) {
+            Triangulation T = new Triangulation(pockets.get(p));
+            if (!T.isValid()) {
+                return null;
+            }
+            Vertex[] pocket = new Vertex[T.vertexCount()];
+            for (int k = 0; k < pocket.length; k++) {
+                pocket[k] = G.getVertices().get(indices.get(p)[k]);
+                if (pocket[k].getX() != T.getVertex(k).getX() || pocket[k].getY() != T.getVertex(k).getY()) {
+                    throw new Error("Pocket vertex " + T.getVertex(k) + " is not at vertex " + indices.get(p)[k] + " of the curves");
+                }
+            }
+            double[] dist = new double[pocket.length];
+            for (int s = 0; s < pocket.length; s++) {
+                int[] pred = T.shortestPaths(s, dist);
+                for (int k = 0; k < pocket.length; k++) {
+                    if (pred[k] >= 0) {
+                        addEdge(G, added, pocket[pred[k]], pocket[k]);
+                    }
+                }
+            }
+        }
+        return G;
+    }
+
+    private static void addEdge(Graph G, Set<Long> added, Vertex u, Vertex v) {
+        int n = G.getVertices().size();
+        long key = (long) Math.min(u.getGraphIndex(), v.getGraphIndex()) * n + Math.max(u.getGraphIndex(), v.getGraphIndex());
+        if (added.add(key)) {
+            G.addEdge(u, v, new LineSegment(u, v));
+        }
+    }
+
     public void computeGeodesicDistances(PolyLine C1, PolyLine C2) {
+        computeGeodesicDistances(C1, C2, false);
+    }
 
-        Graph G = computeVisibilityGraph(C1, C2);
+    // triangulate: find the shortest paths by triangulating the pockets instead of building the full visibility graph,
+    // falls back onto the visibility graph for cycles and for pockets that cannot be triangulated
+    public void computeGeodesicDistances(PolyLine C1, PolyLine C2, boolean triangulate) {
 
-        DijkstrasShortestPath dsp = new DijkstrasShortestPath(G);
+        geodesic = true;
 
+        Graph G = triangulate ? computeShortestPathGraph(C1, C2) : null;
+        if (G == null) {
+            G = computeVisibilityGraph(C1, C2);
+        }
+
+        // adjacency of the visibility graph in compressed form
+        int n = G.getVertices().size();
+        int[] first = new int[n + 1];
+        for (Edge e : G.getEdges()) {
+            first[e.getStart().getGraphIndex() + 1]++;
+            first[e.getEnd().getGraphIndex() + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            first[v + 1] += first[v];
+        }
+        int[] fill = Arrays.copyOf(first, n);
+        int[] adj = new int[first[n]];
+        double[] length = new double[first[n]];
+        for (Edge e : G.getEdges()) {
+            Vertex u = e.getStart();
+            Vertex v = e.getEnd();
+            adj[fill[u.getGraphIndex()]] = v.getGraphIndex();
+            length[fill[u.getGraphIndex()]++] = u.distanceTo(v);
+            adj[fill[v.getGraphIndex()]] = u.getGraphIndex();
+            length[fill[v.getGraphIndex()]++] = v.distanceTo(u);
+        }
+
+        // one shortest path tree per vertex of C1 gives the distances of its whole row
+        double[] dist = new double[n];
+        boolean[] settled = new boolean[n];
+        int[] heap = new int[n];
+        int[] pos = new int[n];
+
+        int k = 0;
         for (int i = 0; i < N; i++) {
-            Vertex u = G.getVertices().get(i);
-            for (int j = 0; j < M; j++) {
-                Vertex v = G.getVertices().get(N + j);
-                values[i][j] = new InstanceNode(i, j, u.isNeighborOf(v) ? u.distanceTo(v) : dsp.computeShortestPathLength(u, v));
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(settled, false);
+            Arrays.fill(pos, -1);
+            int lo = band.getLow(i);
+            int hi = band.getHigh(i);
+            int remaining = hi - lo + 1;
+
+            dist[i] = 0;
+            heap[0] = i;
+            pos[i] = 0;
+            int size = 1;
+            while (size > 0 && remaining > 0) {
+                int u = heap[0];
+                size = pop(heap, pos, dist, size);
+                settled[u] = true;
+                if (u >= N + lo && u <= N + hi) {
+                    remaining--;
+                }
+                for (int a = first[u]; a < first[u + 1]; a++) {
+                    int v = adj[a];
+                    double d = dist[u] + length[a];
+                    if (!settled[v] && d < dist[v]) {
+                        dist[v] = d;
+                        if (pos[v] < 0) {
+                            heap[size] = v;
+                            pos[v] = size;
+                            size++;
+                        }
+                        siftUp(heap, pos, dist, v);
+                    }
+                }
+            }
+
+            int row = k;
+            for (int j = lo; j <= hi; j++) {
+                values[k++] = dist[N + j];
+            }
+            // direct neighbors take the length of their edge
+            for (int a = first[i]; a < first[i + 1]; a++) {
+                int v = adj[a];
+                if (N + lo <= v && v <= N + hi) {
+                    values[row + v - N - lo] = length[a];
+                }
+            }
+        }
+    }
+
+    // binary min-heap on dist, pos tracks the position of each vertex in the heap (-1 if absent)
+    private static void siftUp(int[] heap, int[] pos, double[] dist, int v) {
+        int at = pos[v];
+        while (at > 0 && dist[heap[(at - 1) / 2]] > dist[v]) {
+            heap[at] = heap[(at - 1) / 2];
+            pos[heap[at]] = at;
+            at = (at - 1) / 2;
+        }
+        heap[at] = v;
+        pos[v] = at;
+    }
+
+    private static int pop(int[] heap, int[] pos, double[] dist, int size) {
+        pos[heap[0]] = -1;
+        size--;
+        if (size > 0) {
+            int v = heap[size];
+            int at = 0;
+            while (2 * at + 1 < size) {
+                int c = 2 * at + 1;
+                if (c + 1 < size && dist[heap[c + 1]] < dist[heap[c]]) {
+                    c++;
+                }
+                if (dist[heap[c]] >= dist[v]) {
+                    break;
+                }
+                heap[at] = heap[c];
+                pos[heap[at]] = at;
+                at = c;
             }
+            heap[at] = v;
+            pos[v] = at;
         }
+        return size;
     }
 
-    private static boolean isInteriorEdge(LineSegment ls, List<Polygon> Ps, boolean cyclemode) {
+    private static boolean isInteriorEdge(LineSegment ls, List<Pocket> Ps, boolean cyclemode) {
         int contained = 0;
-        for (Polygon P : Ps) {
+        for (Pocket P : Ps) {
             List<BaseGeometry> ints = P.intersect(ls);
             for (BaseGeometry bg : ints) {
                 if (bg.getGeometryType() == GeometryType.VECTOR) {
@@ -167,7 +383,7 @@ public class Instance {
                     }
                 }
             }
-            if (P.contains(ls.getPointAt(0.5))) {
+            if (P.polygon.contains(ls.getPointAt(0.5))) {
                 contained++;
             }
         }
@@ -186,12 +402,20 @@ public class Instance {
         return N;
     }
 
+    public Band getBand() {
+        return band;
+    }
+
     public double getValue(int i, int j) {
-        return values[i][j].value;
+        if (reversed) {
+            j = M - 1 - j;
+        }
+        int k = band.index(i, j);
+        return k < 0 ? Double.POSITIVE_INFINITY : values[k];
     }
 
     public InstanceNode getNode(int i, int j) {
-        return values[i][j];
+        return new InstanceNode(i, j, getValue(i, j));
     }
 
     private static List<Polygon> computeCycles(PolyLine C1, PolyLine C2) {
@@ -234,18 +458,23 @@ public class Instance {
     }
 
     private static List<Polygon> computePockets(PolyLine C1, PolyLine C2) {
+        return computePockets(C1, C2, null);
+    }
+
+    // indices, if given, receives per pocket the indices of its vertices: i for C1.vertex(i) and N + j for C2.vertex(j)
+    private static List<Polygon> computePockets(PolyLine C1, PolyLine C2, List<int[]> indices) {
         List<Polygon> pockets = new ArrayList();
 
         //System.out.println("Computing");
         //System.out.println("  " + C1);
         //System.out.println("  " + C2);
-        int[] starts = findPockets(C1, C2, pockets);
+        int[] starts = findPockets(C1, C2, pockets, indices, false);
 
         PolyLine C1rev = C1.clone();
         C1rev.reverse();
         PolyLine C2rev = C2.clone();
         C2rev.reverse();
-        int[] ends = findPockets(C1rev, C2rev, pockets);
+        int[] ends = findPockets(C1rev, C2rev, pockets, indices, true);
         ends[0] = C1.vertexCount() - 1 - ends[0];
         ends[1] = C2.vertexCount() - 1 - ends[1];
 
@@ -262,12 +491,24 @@ public class Instance {
         for (int i = ends[1]; i >= starts[1]; i--) {
             P.addVertex(C2.vertex(i));
         }
+        if (indices != null) {
+            int[] index = new int[P.vertexCount()];
+            int k = 0;
+            for (int i = starts[0]; i <= ends[0]; i++) {
+                index[k++] = i;
+            }
+            for (int i = ends[1]; i >= starts[1]; i--) {
+                index[k++] = C1.vertexCount() + i;
+            }
+            indices.add(index);
+        }
 
         //System.out.println("Pocket count: " + pockets.size());
         return pockets;
     }
 
-    private static int[] findPockets(PolyLine C1, PolyLine C2, List<Polygon> pockets) {
+    // reversed: the curves are reversed copies, for which the indices of the pockets are mapped back
+    private static int[] findPockets(PolyLine C1, PolyLine C2, List<Polygon> pockets, List<int[]> indices, boolean reversed) {
         LineSegment cap = new LineSegment(C1.vertex(0), C2.vertex(0));
 
         //System.out.println("Finding...");
@@ -391,6 +632,9 @@ public class Instance {
 
             if (P.vertexCount() > 2) {
                 pockets.add(P);
+                if (indices != null) {
+                    indices.add(pocketIndices(walk1 - P.vertexCount() + 1, walk1, reversed, C1.vertexCount(), 0));
+                }
             }
         }
         int walk2 = 0;
@@ -409,12 +653,62 @@ public class Instance {
 
             if (P.vertexCount() > 2) {
                 pockets.add(P);
+                if (indices != null) {
+                    indices.add(pocketIndices(walk2 - P.vertexCount() + 1, walk2, reversed, C2.vertexCount(), C1.vertexCount()));
+                }
             }
         }
 
         return new int[]{walk1, walk2};
     }
 
+    private static int[] pocketIndices(int from, int to, boolean reversed, int n, int offset) {
+        int[] index = new int[to - from + 1];
+        for (int k = 0; k < index.length; k++) {
+            index[k] = offset + (reversed ? n - 1 - (from + k) : from + k);
+        }
+        return index;
+    }
+
+    // polygon with its edges in a grid, so that a segment is only intersected with the edges near it
+    private static class Pocket {
+
+        Polygon polygon;
+        UniformGrid<LineSegment> edges;
+        double step;
+
+        Pocket(Polygon polygon) {
+            this.polygon = polygon;
+            Rectangle bounds = Rectangle.byBoundingBox(polygon);
+            edges = new UniformGrid(bounds, polygon.edgeCount());
+            step = Math.max(Math.sqrt(bounds.width() * bounds.height() / Math.max(1, polygon.edgeCount())), 1e-9);
+            for (int i = 0; i < polygon.edgeCount(); i++) {
+                LineSegment edge = polygon.edge(i);
+                edges.insert(edge, Math.min(edge.getStart().getX(), edge.getEnd().getX()), Math.min(edge.getStart().getY(), edge.getEnd().getY()),
+                        Math.max(edge.getStart().getX(), edge.getEnd().getX()), Math.max(edge.getStart().getY(), edge.getEnd().getY()));
+            }
+        }
+
+        // same intersections as polygon.intersect(ls)
+        List<BaseGeometry> intersect(LineSegment ls) {
+            // query the segment in pieces of about a cell, so that a long segment does not collect all edges in its bounding box
+            Set<LineSegment> near = Collections.newSetFromMap(new IdentityHashMap());
+            int pieces = (int) Math.min(4096, Math.ceil(ls.length() / step));
+            double slack = DoubleUtil.EPS * (1 + ls.length());
+            for (int k = 0; k < Math.max(1, pieces); k++) {
+                Vector a = ls.getPointAt((double) k / Math.max(1, pieces));
+                Vector b = ls.getPointAt((double) (k + 1) / Math.max(1, pieces));
+                edges.query(Math.min(a.getX(), b.getX()) - slack, Math.min(a.getY(), b.getY()) - slack,
+                        Math.max(a.getX(), b.getX()) + slack, Math.max(a.getY(), b.getY()) + slack, near);
+            }
+            List<BaseGeometry> ints = new ArrayList();
+            for (LineSegment edge : near) {
+                ints.addAll(edge.intersect(ls));
+            }
+            return ints;
+        }
+    }
+
     private static class Vec extends Vector {
 
         PolyLine poly;
@@ -0,0 +1,222 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MatchingCache {
+
+    // matchings of isoline pairs, keyed by a hash of the geometry and the parameters that affect the matching
+    // entries are kept in memory up to a number of bytes, least recently used first out,
+    // and optionally in a directory as one file per key
+    // the version is part of every key and file: increase it whenever the matchings computed for a key change
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x4c43464d;
+    private final Map<String, Entry> memory = new LinkedHashMap(16, 0.75f, true);
+    private final long capacity;
+    private long bytes = 0;
+    private File directory = null;
+
+    public MatchingCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // null keeps the cache in memory only
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        bytes = 0;
+    }
+
+    public Entry get(String key) {
+        Entry e;
+        synchronized (this) {
+            e = memory.get(key);
+        }
+        if (e == null && directory != null) {
+            e = read(new File(directory, key + ".lcfm"));
+            if (e != null) {
+                store(key, e);
+            }
+        }
+        return e;
+    }
+
+    public void put(String key, Entry e) {
+        store(key, e);
+        if (directory != null) {
+            write(new File(directory, key + ".lcfm"), e);
+        }
+    }
+
+    private synchronized void store(String key, Entry e) {
+        Entry old = memory.put(key, e);
+        if (old != null) {
+            bytes -= old.bytes();
+        }
+        bytes += e.bytes();
+        Iterator<Entry> it = memory.values().iterator();
+        while (bytes > capacity && it.hasNext()) {
+            bytes -= it.next().bytes();
+            it.remove();
+        }
+    }
+
+    private static Entry read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // written by another version, it is overwritten once the matching is computed again
+                return null;
+            }
+            int lower_start = in.readInt();
+            int upper_start = in.readInt();
+            boolean reverse_upper = in.readBoolean();
+            DiscreteMatching DM = new DiscreteMatching(in.readInt());
+            for (int k = 0; k < DM.size(); k++) {
+                DM.set(k, in.readInt(), in.readInt(), in.readDouble());
+            }
+            return new Entry(DM, lower_start, upper_start, reverse_upper);
+        } catch (IOException ex) {
+            // an unreadable file is a miss, it is overwritten once the matching is computed again
+            return null;
+        }
+    }
+
+    private static void write(File file, Entry e) {
+        try {
+            file.getParentFile().mkdirs();
+            // write aside and move into place, so that concurrent runs never read a partial file
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(e.lower_start);
+                out.writeInt(e.upper_start);
+                out.writeBoolean(e.reverse_upper);
+                out.writeInt(e.matching.size());
+                for (int k = 0; k < e.matching.size(); k++) {
+                    out.writeInt(e.matching.getI(k));
+                    out.writeInt(e.matching.getJ(k));
+                    out.writeDouble(e.matching.getValue(k));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // the cache is an optimization, failing to store an entry only costs recomputing it
+            System.err.println("Could not write " + file + ": " + ex.getMessage());
+        }
+    }
+
+    // builds a key from the data fed to it
+    public static class Key {
+
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[8];
+
+        public Key() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new Error("SHA-256 is not available", ex);
+            }
+            add(VERSION);
+        }
+
+        public Key add(long value) {
+            for (int b = 0; b < 8; b++) {
+                buffer[b] = (byte) (value >>> (8 * b));
+            }
+            digest.update(buffer);
+            return this;
+        }
+
+        public Key add(double value) {
+            return add(Double.doubleToLongBits(value));
+        }
+
+        public Key add(boolean value) {
+            return add(value ? 1L : 0L);
+        }
+
+        public String finish() {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static class Entry {
+
+        // the matching between the carved isolines, with the positions of their starting coordinates in the isolines
+        private final DiscreteMatching matching;
+        private final int lower_start, upper_start;
+        private final boolean reverse_upper;
+
+        public Entry(DiscreteMatching matching, int lower_start, int upper_start, boolean reverse_upper) {
+            // the distances of the instance are not needed to reuse the matching, and are by far the larger part
+            this.matching = matching.withoutInstance();
+            this.lower_start = lower_start;
+            this.upper_start = upper_start;
+            this.reverse_upper = reverse_upper;
+        }
+
+        public DiscreteMatching getMatching() {
+            return matching;
+        }
+
+        public int getLowerStart() {
+            return lower_start;
+        }
+
+        public int getUpperStart() {
+            return upper_start;
+        }
+
+        public boolean isReverseUpper() {
+            return reverse_upper;
+        }
+
+        // estimated memory use of the entry
+        long bytes() {
+            return 128 + 16L * matching.size();
+        }
+    }
+}
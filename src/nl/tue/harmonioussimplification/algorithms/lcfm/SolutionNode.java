@@ -14,7 +14,8 @@ import java.util.List;
 
 public class SolutionNode {
 
-    protected InstanceNode node;
+    protected int i, j;
+    protected double value;
     protected SolutionNode pred, up, diagonal, right;
     protected Shortcut sc_up, sc_right;
     protected List<Shortcut> sc_incs_up = new LinkedList<Shortcut>();
@@ -51,16 +52,27 @@ public class SolutionNode {
         return c;
     }
 
+    // the only child of a node with outdegree 1
+    protected SolutionNode child() {
+        if (up != null) {
+            return up;
+        } else if (diagonal != null) {
+            return diagonal;
+        } else {
+            return right;
+        }
+    }
+
     protected boolean isRoot() {
-        return node.i == 0 && node.j == 0;
+        return i == 0 && j == 0;
     }
 
     protected boolean onWorkingBoundary(int next_i, int next_j) {
         // NB: next_i and next_j indicate the latest filled position
-        if (node.j >= next_j) {
-            return node.i >= next_i - 1;
+        if (j >= next_j) {
+            return i >= next_i - 1;
         } else {
-            return node.i >= next_i;
+            return i >= next_i;
         }
     }
 
@@ -68,8 +80,21 @@ public class SolutionNode {
         return !isRoot() && pred.up != this && pred.diagonal != this && pred.right != this;
     }
 
+    public int getI() {
+        return i;
+    }
+
+    public int getJ() {
+        return j;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    // materializes the matched cell, only needed along the final matching
     public InstanceNode getNode() {
-        return node;
+        return new InstanceNode(i, j, value);
     }
 
     public SolutionNode getPred() {
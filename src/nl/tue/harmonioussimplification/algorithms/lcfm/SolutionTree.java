@@ -16,7 +16,9 @@ import nl.tue.geometrycore.util.DoubleUtil;
 public class SolutionTree {
 
     private Instance I;
-    private SolutionNode[][] nodes;
+    // nodes of the cells in the band of the instance, see Band.index
+    private Band band;
+    private SolutionNode[] nodes;
     private int next_i, next_j;
 
     public SolutionTree(Instance I) {
@@ -25,100 +27,181 @@ public class SolutionTree {
     }
 
     private void init() {
-        nodes = new SolutionNode[I.N][I.M];
+        band = I.getBand();
+        nodes = new SolutionNode[(int) band.size()];
         for (int i = 0; i < I.N; i++) {
-            for (int j = 0; j < I.M; j++) {
-                nodes[i][j] = new SolutionNode();
-                nodes[i][j].node = I.values[i][j];
+            for (int j = band.getLow(i); j <= band.getHigh(i); j++) {
+                SolutionNode node = new SolutionNode();
+                node.i = i;
+                node.j = j;
+                node.value = I.getValue(i, j);
+                nodes[band.index(i, j)] = node;
             }
         }
 
-        for (int i = 1; i < I.N; i++) {
-            nodes[i][0].pred = nodes[i - 1][0];
-            nodes[i - 1][0].right = nodes[i][0];
+        for (int i = 1; i < I.N && band.getLow(i) == 0; i++) {
+            getNode(i, 0).pred = getNode(i - 1, 0);
+            getNode(i - 1, 0).right = getNode(i, 0);
         }
 
-        for (int j = 1; j < I.M; j++) {
-            nodes[0][j].pred = nodes[0][j - 1];
-            nodes[0][j - 1].up = nodes[0][j];
+        for (int j = 1; j <= band.getHigh(0); j++) {
+            getNode(0, j).pred = getNode(0, j - 1);
+            getNode(0, j - 1).up = getNode(0, j);
         }
 
         next_i = 1;
-        next_j = 1;
+        next_j = firstColumn(1);
+    }
+
+    // a row also visits the cells just outside the band that have a neighbor in the band below or to the left,
+    // so that shortcuts are made and dead branches are killed at the same moment as in the full grid
+    private int firstColumn(int i) {
+        return i < I.N ? Math.max(1, band.getLow(i - 1)) : 1;
+    }
+
+    private int lastColumn(int i) {
+        return Math.min(I.M - 1, band.getHigh(i) + 1);
     }
 
     private void expandTree(int i, int j) {
-        SolutionNode node = nodes[i][j];
-        SolutionNode down = nodes[i][j - 1];
-        SolutionNode diagonal = nodes[i - 1][j - 1];
-        SolutionNode left = nodes[i - 1][j];
+        SolutionNode node = getNode(i, j);
+        SolutionNode down = getNode(i, j - 1);
+        SolutionNode diagonal = getNode(i - 1, j - 1);
+        SolutionNode left = getNode(i - 1, j);
+
+        if (node != null) {
+            // in a band, the cells along its border miss some of their predecessors
+            SolutionNode best = down;
+
+            if (diagonal != null && (best == null || better(diagonal, best))) {
+                best = diagonal;
+            }
+
+            if (left != null && (best == null || better(left, best))) {
+                best = left;
+            }
+
+            node.pred = best;
+            if (best == down) {
+                best.up = node;
+            } else if (best == diagonal) {
+                best.diagonal = node;
+            } else {
+                best.right = node;
+            }
+        }
 
-        SolutionNode best = down;
+        // make up shortcut for nodes[i][j - 1] if necessary
+        if (down != null) {
+            ensureUp(down);
+        }
 
-        if (better(diagonal, best)) {
-            best = diagonal;
+        // make right shortcut for nodes[i - 1][j] if necessary
+        if (left != null) {
+            ensureRight(left);
         }
 
-        if (better(left, best)) {
-            best = left;
+        if (node != null) {
+            makeShortcuts(node, down, diagonal, left);
         }
 
-        node.pred = best;
-        if (best == down) {
-            best.up = node;
-        } else if (best == diagonal) {
-            best.diagonal = node;
+        if (diagonal != null && diagonal.outdegree() == 0) {
+            killBranch(diagonal);
+        }
+
+        if (next_j >= lastColumn(next_i)) {
+            next_i++;
+            next_j = firstColumn(next_i);
         } else {
-            best.right = node;
+            next_j++;
         }
+    }
 
-        // make up shortcut for nodes[i][j - 1] if necessary
-        if (down.sc_up == null) {
-            Shortcut sc = new Shortcut();
-            down.sc_up = sc;
-
-            sc.from = down;
-            if (down.pred.isRoot()) {
-                sc.to = down.pred;
-                sc.inc = Incoming.RIGHT;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = down.node.value;
-            } else if (down.pred.outdegree() == 1) {
-                sc.to = down.pred.sc_up.to;
-                sc.inc = down.pred.sc_up.inc;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = Math.max(down.node.value, down.pred.sc_up.max);
-            } else {
-                sc.to = down.pred;
-                sc.inc = Incoming.RIGHT;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = down.node.value;
+    // makes the up shortcut of the node if it does not have one yet
+    // near the border of a band, its non-branching predecessors may lack one too; these are made first
+    private Shortcut ensureUp(SolutionNode node) {
+        if (node.sc_up != null) {
+            return node.sc_up;
+        }
+        SolutionNode from = node;
+        while (!from.pred.isRoot() && from.pred.outdegree() == 1 && from.pred.sc_up == null) {
+            from = from.pred;
+        }
+        while (true) {
+            makeUp(from);
+            if (from == node) {
+                return node.sc_up;
             }
+            from = from.child();
         }
+    }
 
-        // make right shortcut for nodes[i - 1][j] if necessary
-        if (left.sc_right == null) {
-            Shortcut sc = new Shortcut();
-            left.sc_right = sc;
-
-            sc.from = left;
-            if (left.pred.isRoot()) {
-                sc.to = left.pred;
-                sc.inc = Incoming.UP;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = left.node.value;
-            } else if (left.pred.outdegree() == 1) {
-                sc.to = left.pred.sc_right.to;
-                sc.inc = left.pred.sc_right.inc;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = Math.max(left.node.value, left.pred.sc_right.max);
-            } else {
-                sc.to = left.pred;
-                sc.inc = Incoming.UP;
-                sc.to.getIncs(sc.inc).add(sc);
-                sc.max = left.node.value;
+    private void makeUp(SolutionNode down) {
+        Shortcut sc = new Shortcut();
+        down.sc_up = sc;
+
+        sc.from = down;
+        if (down.pred.isRoot()) {
+            sc.to = down.pred;
+            sc.inc = Incoming.RIGHT;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = down.value;
+        } else if (down.pred.outdegree() == 1) {
+            sc.to = down.pred.sc_up.to;
+            sc.inc = down.pred.sc_up.inc;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = Math.max(down.value, down.pred.sc_up.max);
+        } else {
+            sc.to = down.pred;
+            sc.inc = Incoming.RIGHT;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = down.value;
+        }
+    }
+
+    // makes the right shortcut of the node if it does not have one yet, see ensureUp
+    private Shortcut ensureRight(SolutionNode node) {
+        if (node.sc_right != null) {
+            return node.sc_right;
+        }
+        SolutionNode from = node;
+        while (!from.pred.isRoot() && from.pred.outdegree() == 1 && from.pred.sc_right == null) {
+            from = from.pred;
+        }
+        while (true) {
+            makeRight(from);
+            if (from == node) {
+                return node.sc_right;
             }
+            from = from.child();
+        }
+    }
+
+    private void makeRight(SolutionNode left) {
+        Shortcut sc = new Shortcut();
+        left.sc_right = sc;
+
+        sc.from = left;
+        if (left.pred.isRoot()) {
+            sc.to = left.pred;
+            sc.inc = Incoming.UP;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = left.value;
+        } else if (left.pred.outdegree() == 1) {
+            sc.to = left.pred.sc_right.to;
+            sc.inc = left.pred.sc_right.inc;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = Math.max(left.value, left.pred.sc_right.max);
+        } else {
+            sc.to = left.pred;
+            sc.inc = Incoming.UP;
+            sc.to.getIncs(sc.inc).add(sc);
+            sc.max = left.value;
         }
+    }
+
+    private void makeShortcuts(SolutionNode node, SolutionNode down, SolutionNode diagonal, SolutionNode left) {
+        SolutionNode best = node.pred;
 
         // make shortcuts for nodes[i][j] where necessary
         if (best == down) {
@@ -130,39 +213,41 @@ public class SolutionTree {
             sc.to = down.sc_up.to;
             sc.inc = down.sc_up.inc;
             sc.to.getIncs(sc.inc).add(sc);
-            sc.max = Math.max(node.node.value, down.sc_up.max);
+            sc.max = Math.max(node.value, down.sc_up.max);
         } else if (best == diagonal) {
             // diagonal, make both shortcuts
             Shortcut sc_right = new Shortcut();
             node.sc_right = sc_right;
 
             sc_right.from = node;
-            if (diagonal.right == null) {
-                sc_right.to = diagonal.sc_right.to;
-                sc_right.inc = diagonal.sc_right.inc;
+            if (diagonal.right == null && !diagonal.isRoot()) {
+                Shortcut with = ensureRight(diagonal);
+                sc_right.to = with.to;
+                sc_right.inc = with.inc;
                 sc_right.to.getIncs(sc_right.inc).add(sc_right);
-                sc_right.max = Math.max(node.node.value, diagonal.sc_right.max);
+                sc_right.max = Math.max(node.value, with.max);
             } else {
                 sc_right.to = diagonal;
                 sc_right.inc = Incoming.DIAGRIGHT;
                 sc_right.to.getIncs(sc_right.inc).add(sc_right);
-                sc_right.max = node.node.value;
+                sc_right.max = node.value;
             }
 
             Shortcut sc_up = new Shortcut();
             node.sc_up = sc_up;
 
             sc_up.from = node;
-            if (diagonal.up == null) {
-                sc_up.to = diagonal.sc_up.to;
-                sc_up.inc = diagonal.sc_up.inc;
+            if (diagonal.up == null && !diagonal.isRoot()) {
+                Shortcut with = ensureUp(diagonal);
+                sc_up.to = with.to;
+                sc_up.inc = with.inc;
                 sc_up.to.getIncs(sc_up.inc).add(sc_up);
-                sc_up.max = Math.max(node.node.value, diagonal.sc_up.max);
+                sc_up.max = Math.max(node.value, with.max);
             } else {
                 sc_up.to = diagonal;
                 sc_up.inc = Incoming.DIAGUP;
                 sc_up.to.getIncs(sc_up.inc).add(sc_up);
-                sc_up.max = node.node.value;
+                sc_up.max = node.value;
             }
         } else {
             // went right, make right shortcut
@@ -173,122 +258,124 @@ public class SolutionTree {
             sc.to = left.sc_right.to;
             sc.inc = left.sc_right.inc;
             sc.to.getIncs(sc.inc).add(sc);
-            sc.max = Math.max(node.node.value, left.sc_right.max);
+            sc.max = Math.max(node.value, left.sc_right.max);
         }
+    }
 
-        if (diagonal.outdegree() == 0) {
-            // kill diagonal branch
-            SolutionNode dead = diagonal;
-            SolutionNode alive = diagonal.pred;
-            while (alive.outdegree() == 1) {
-                // kill alive
-                alive.up = alive.diagonal = alive.right = null;
-                dead = alive;
-                alive = alive.pred;
-            }
+    private void killBranch(SolutionNode diagonal) {
+        // kill diagonal branch
+        SolutionNode dead = diagonal;
+        SolutionNode alive = diagonal.pred;
+        while (alive.outdegree() == 1 && !alive.isRoot()) {
+            // kill alive
+            alive.up = alive.diagonal = alive.right = null;
+            dead = alive;
+            alive = alive.pred;
+        }
 
-            // alive is the branching node, dead is its now dead child
+        // alive is the branching node, dead is its now dead child
+        if (alive.isRoot()) {
+            // nothing extends beyond the root
             if (alive.up == dead) {
                 alive.up = null;
-                List<Shortcut> extend;
-                Shortcut with = alive.sc_up;
-                if (alive.diagonal != null) {
-                    extend = alive.getIncs(Incoming.DIAGUP);
-                } else { // alive.right != null
-                    extend = alive.getIncs(Incoming.RIGHT);
+            } else if (alive.diagonal == dead) {
+                alive.diagonal = null;
+            } else {
+                alive.right = null;
+            }
+        } else if (alive.up == dead) {
+            alive.up = null;
+            List<Shortcut> extend;
+            if (alive.diagonal != null) {
+                extend = alive.getIncs(Incoming.DIAGUP);
+            } else { // alive.right != null
+                extend = alive.getIncs(Incoming.RIGHT);
+            }
+            Iterator<Shortcut> it = extend.iterator();
+            while (it.hasNext()) {
+                Shortcut sc = it.next();
+                if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
+                    // extend
+                    Shortcut with = ensureUp(alive);
+                    sc.to = with.to;
+                    sc.inc = with.inc;
+                    sc.max = Math.max(sc.max, with.max);
+                    sc.to.getIncs(sc.inc).add(sc);
+                } else {
+                    // remove
+                    sc.from.sc_up = null;
                 }
+                it.remove();
+            }
+        } else if (alive.diagonal == dead) {
+            alive.diagonal = null;
+            if (alive.up != null && alive.right != null) {
+                // no extensions needed
+            } else if (alive.up != null) {
+                // extend those from UP
+                List<Shortcut> extend = alive.getIncs(Incoming.UP);
                 Iterator<Shortcut> it = extend.iterator();
                 while (it.hasNext()) {
                     Shortcut sc = it.next();
                     if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
                         // extend
+                        Shortcut with = ensureRight(alive);
                         sc.to = with.to;
                         sc.inc = with.inc;
                         sc.max = Math.max(sc.max, with.max);
                         sc.to.getIncs(sc.inc).add(sc);
                     } else {
                         // remove
-                        sc.from.sc_up = null;
+                        sc.from.sc_right = null;
                     }
                     it.remove();
                 }
-            } else if (alive.diagonal == dead) {
-                alive.diagonal = null;
-                if (alive.up != null && alive.right != null) {
-                    // no extensions needed
-                } else if (alive.up != null) {
-                    // extend those from UP
-                    List<Shortcut> extend = alive.getIncs(Incoming.UP);
-                    Shortcut with = alive.sc_right;
-                    Iterator<Shortcut> it = extend.iterator();
-                    while (it.hasNext()) {
-                        Shortcut sc = it.next();
-                        if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
-                            // extend
-                            sc.to = with.to;
-                            sc.inc = with.inc;
-                            sc.max = Math.max(sc.max, with.max);
-                            sc.to.getIncs(sc.inc).add(sc);
-                        } else {
-                            // remove
-                            sc.from.sc_right = null;
-                        }
-                        it.remove();
-                    }
-
-                } else { // alive.right != null
-                    // extend those from RIGHT
-                    List<Shortcut> extend = alive.getIncs(Incoming.RIGHT);
-                    Shortcut with = alive.sc_up;
-                    Iterator<Shortcut> it = extend.iterator();
-                    while (it.hasNext()) {
-                        Shortcut sc = it.next();
-                        if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
-                            // extend
-                            sc.to = with.to;
-                            sc.inc = with.inc;
-                            sc.max = Math.max(sc.max, with.max);
-                            sc.to.getIncs(sc.inc).add(sc);
-                        } else {
-                            // remove
-                            sc.from.sc_up = null;
-                        }
-                        it.remove();
-                    }
-                }
-            } else if (alive.right == dead) {
-                alive.right = null;
 
-                List<Shortcut> extend;
-                Shortcut with = alive.sc_right;
-                if (alive.diagonal != null) {
-                    extend = alive.getIncs(Incoming.DIAGRIGHT);
-                } else { // alive.up != null
-                    extend = alive.getIncs(Incoming.UP);
-                }
+            } else { // alive.right != null
+                // extend those from RIGHT
+                List<Shortcut> extend = alive.getIncs(Incoming.RIGHT);
                 Iterator<Shortcut> it = extend.iterator();
                 while (it.hasNext()) {
                     Shortcut sc = it.next();
                     if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
                         // extend
+                        Shortcut with = ensureUp(alive);
                         sc.to = with.to;
                         sc.inc = with.inc;
                         sc.max = Math.max(sc.max, with.max);
                         sc.to.getIncs(sc.inc).add(sc);
                     } else {
                         // remove
-                        sc.from.sc_right = null;
+                        sc.from.sc_up = null;
                     }
                     it.remove();
                 }
             }
-        }
-
-        if (next_j == I.M - 1) {
-            next_i++;
-            next_j = 1;
-        } else {
-            next_j++;
+        } else if (alive.right == dead) {
+            alive.right = null;
+
+            List<Shortcut> extend;
+            if (alive.diagonal != null) {
+                extend = alive.getIncs(Incoming.DIAGRIGHT);
+            } else { // alive.up != null
+                extend = alive.getIncs(Incoming.UP);
+            }
+            Iterator<Shortcut> it = extend.iterator();
+            while (it.hasNext()) {
+                Shortcut sc = it.next();
+                if (sc.from.outdegree() > 1 || sc.from.onWorkingBoundary(next_i, next_j)) {
+                    // extend
+                    Shortcut with = ensureRight(alive);
+                    sc.to = with.to;
+                    sc.inc = with.inc;
+                    sc.max = Math.max(sc.max, with.max);
+                    sc.to.getIncs(sc.inc).add(sc);
+                } else {
+                    // remove
+                    sc.from.sc_right = null;
+                }
+                it.remove();
+            }
         }
     }
 
@@ -304,20 +391,22 @@ public class SolutionTree {
         }
 
         if (B.pred == A) {
-            return B.node.value > 0;
+            return B.value > 0;
         }
 
         if (B.pred == A.pred) {
-            return A.node.value < B.node.value;
+            return A.value < B.value;
         }
 
-        int steps = 0;
         while (wA != wB) {
-            steps++;
-            if (wA.node.i > wB.node.i || (wA.node.i == wB.node.i && wA.node.j > wB.node.j)) {
+            if (wA.i > wB.i || (wA.i == wB.i && wA.j > wB.j)) {
                 // walk A down one shortcut (right shortcut)
-                if (wA.sc_right == null) {
-                    maxA = Math.max(maxA, Math.max(wA.node.value, wA.pred.isRoot() ? 0 : wA.pred.sc_right.max));
+                if (wA.sc_right == null && !wA.pred.isRoot() && wA.pred.sc_right == null) {
+                    // near the border of a band the predecessor may lack a shortcut as well: take a single step
+                    maxA = Math.max(maxA, wA.value);
+                    wA = wA.pred;
+                } else if (wA.sc_right == null) {
+                    maxA = Math.max(maxA, Math.max(wA.value, wA.pred.isRoot() ? 0 : wA.pred.sc_right.max));
                     wA = wA.pred.isRoot() ? wA.pred : wA.pred.sc_right.to;
                 } else {
                     maxA = Math.max(maxA, wA.sc_right.max);
@@ -325,8 +414,12 @@ public class SolutionTree {
                 }
             } else {
                 // walk B down one shortcut (up shortcut)
-                if (wB.sc_up == null) {
-                    maxB = Math.max(maxB, Math.max(wB.node.value, wB.pred.isRoot() ? 0 : wB.pred.sc_up.max));
+                if (wB.sc_up == null && !wB.pred.isRoot() && wB.pred.sc_up == null) {
+                    // near the border of a band the predecessor may lack a shortcut as well: take a single step
+                    maxB = Math.max(maxB, wB.value);
+                    wB = wB.pred;
+                } else if (wB.sc_up == null) {
+                    maxB = Math.max(maxB, Math.max(wB.value, wB.pred.isRoot() ? 0 : wB.pred.sc_up.max));
                     wB = wB.pred.isRoot() ? wB.pred : wB.pred.sc_up.to;
                 } else {
                     maxB = Math.max(maxB, wB.sc_up.max);
@@ -334,10 +427,6 @@ public class SolutionTree {
                 }
             }
         }
-        if (steps > 3) {
-            System.err.println("Steps: " + steps);
-        }
-
         return maxA < maxB - DoubleUtil.EPS;
     }
 
@@ -357,7 +446,13 @@ public class SolutionTree {
         }
     }
 
-    public SolutionNode[][] getNodes() {
-        return nodes;
+    public Band getBand() {
+        return band;
+    }
+
+    // returns null for cells outside the band
+    public SolutionNode getNode(int i, int j) {
+        int k = band.index(i, j);
+        return k < 0 ? null : nodes[k];
     }
 }
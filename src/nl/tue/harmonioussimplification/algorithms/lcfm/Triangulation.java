@@ -0,0 +1,284 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.lcfm;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.Polygon;
+
+public class Triangulation {
+
+    // ear clipping triangulation of a simple polygon, shortest paths inside it follow funnels through the dual tree
+    // the triangulation is invalid if the polygon is not simple enough to clip, e.g. with duplicate or collinear vertices
+    private Vector[] vertices;
+    private int n;
+    private int[] triangles; // three vertices per triangle, counterclockwise
+    private int[] neighbors; // per triangle the triangle across the edge from its k-th to its (k+1)-th vertex, or -1
+    private int[] incident, incident_first; // triangles around each vertex
+    private boolean valid;
+
+    public Triangulation(Polygon P) {
+        n = P.vertexCount();
+        vertices = new Vector[n];
+        for (int i = 0; i < n; i++) {
+            vertices[i] = P.vertex(i);
+        }
+        valid = n >= 3 && clipEars();
+        if (valid) {
+            connect();
+        }
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int vertexCount() {
+        return n;
+    }
+
+    public Vector getVertex(int i) {
+        return vertices[i];
+    }
+
+    private double orient(int a, int b, int c) {
+        Vector va = vertices[a];
+        Vector vb = vertices[b];
+        Vector vc = vertices[c];
+        return (vb.getX() - va.getX()) * (vc.getY() - va.getY()) - (vb.getY() - va.getY()) * (vc.getX() - va.getX());
+    }
+
+    private boolean clipEars() {
+        double area = 0;
+        for (int i = 0; i < n; i++) {
+            Vector a = vertices[i];
+            Vector b = vertices[(i + 1) % n];
+            area += a.getX() * b.getY() - b.getX() * a.getY();
+        }
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            // walk the polygon counterclockwise
+            if (area > 0) {
+                prev[i] = (i + n - 1) % n;
+                next[i] = (i + 1) % n;
+            } else {
+                prev[i] = (i + 1) % n;
+                next[i] = (i + n - 1) % n;
+            }
+        }
+        boolean[] reflex = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            reflex[i] = orient(prev[i], i, next[i]) <= 0;
+        }
+
+        triangles = new int[3 * (n - 2)];
+        int count = 0;
+        int remaining = n;
+        int i = 0;
+        int failed = 0;
+        while (remaining > 3) {
+            if (isEar(i, prev, next, reflex)) {
+                int p = prev[i];
+                int q = next[i];
+                triangles[count++] = p;
+                triangles[count++] = i;
+                triangles[count++] = q;
+                next[p] = q;
+                prev[q] = p;
+                reflex[p] = orient(prev[p], p, q) <= 0;
+                reflex[q] = orient(p, q, next[q]) <= 0;
+                remaining--;
+                failed = 0;
+                i = p;
+            } else if (++failed > remaining) {
+                return false;
+            } else {
+                i = next[i];
+            }
+        }
+        triangles[count++] = prev[i];
+        triangles[count++] = i;
+        triangles[count++] = next[i];
+        return orient(prev[i], i, next[i]) > 0;
+    }
+
+    private boolean isEar(int i, int[] prev, int[] next, boolean[] reflex) {
+        int p = prev[i];
+        int q = next[i];
+        if (reflex[i]) {
+            return false;
+        }
+        // only reflex vertices can lie in a convex corner, touching counts to keep out degenerate triangles
+        for (int r = next[q]; r != p; r = next[r]) {
+            if (reflex[r] && orient(p, i, r) >= 0 && orient(i, q, r) >= 0 && orient(q, p, r) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void connect() {
+        neighbors = new int[triangles.length];
+        Map<Long, Integer> edges = new HashMap();
+        for (int k = 0; k < triangles.length; k++) {
+            int a = triangles[k];
+            int b = triangles[k - k % 3 + (k + 1) % 3];
+            long key = (long) Math.min(a, b) * n + Math.max(a, b);
+            Integer other = edges.remove(key);
+            if (other == null) {
+                edges.put(key, k);
+                neighbors[k] = -1;
+            } else {
+                neighbors[k] = other / 3;
+                neighbors[other] = k / 3;
+            }
+        }
+
+        incident_first = new int[n + 1];
+        for (int k = 0; k < triangles.length; k++) {
+            incident_first[triangles[k] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            incident_first[v + 1] += incident_first[v];
+        }
+        int[] fill = Arrays.copyOf(incident_first, n);
+        incident = new int[triangles.length];
+        for (int k = 0; k < triangles.length; k++) {
+            incident[fill[triangles[k]]++] = k / 3;
+        }
+    }
+
+    // shortest paths inside the polygon from s to every vertex: returns the predecessors and stores the lengths in dist
+    public int[] shortestPaths(int s, double[] dist) {
+        int[] pred = new int[n];
+        Arrays.fill(pred, -1);
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[s] = 0;
+
+        // the triangles around s see their vertices directly, the rest of the dual tree hangs off their opposite edges
+        Deque<Funnel> stack = new ArrayDeque();
+        for (int k = incident_first[s]; k < incident_first[s + 1]; k++) {
+            int t = incident[k];
+            int at = 0;
+            while (triangles[3 * t + at] != s) {
+                at++;
+            }
+            int u = triangles[3 * t + (at + 1) % 3];
+            int v = triangles[3 * t + (at + 2) % 3];
+            for (int w : new int[]{u, v}) {
+                if (pred[w] < 0) {
+                    pred[w] = s;
+                    dist[w] = vertices[s].distanceTo(vertices[w]);
+                }
+            }
+            int across = neighbors[3 * t + (at + 1) % 3];
+            if (across >= 0) {
+                stack.push(new Funnel(across, new int[]{u, s, v}, 1));
+            }
+        }
+
+        while (!stack.isEmpty()) {
+            Funnel f = stack.pop();
+            int[] chain = f.chain;
+            int apex = f.apex;
+            int a = chain[0];
+            int b = chain[chain.length - 1];
+            int c = opposite(f.triangle, a, b);
+            if (orient(a, b, c) < 0) {
+                // look from the apex through the edge, with a on the left
+                reverse(chain);
+                apex = chain.length - 1 - apex;
+                a = chain[0];
+                b = chain[chain.length - 1];
+            }
+
+            // the funnel vertex from which c is seen: the left chain turns left and the right chain turns right
+            int tangent = apex;
+            for (int i = 0; i < apex; i++) {
+                if (orient(chain[i + 1], chain[i], c) >= 0) {
+                    tangent = i;
+                    break;
+                }
+            }
+            if (tangent == apex) {
+                for (int i = chain.length - 1; i > apex; i--) {
+                    if (orient(chain[i - 1], chain[i], c) <= 0) {
+                        tangent = i;
+                        break;
+                    }
+                }
+            }
+            pred[c] = chain[tangent];
+            dist[c] = dist[chain[tangent]] + vertices[chain[tangent]].distanceTo(vertices[c]);
+
+            int left = across(f.triangle, a, c);
+            if (left >= 0) {
+                int[] sub = Arrays.copyOf(chain, tangent + 2);
+                sub[tangent + 1] = c;
+                stack.push(new Funnel(left, sub, Math.min(apex, tangent)));
+            }
+            int right = across(f.triangle, c, b);
+            if (right >= 0) {
+                int[] sub = new int[chain.length - tangent + 1];
+                sub[0] = c;
+                System.arraycopy(chain, tangent, sub, 1, chain.length - tangent);
+                stack.push(new Funnel(right, sub, tangent > apex ? 1 : 1 + apex - tangent));
+            }
+        }
+        return pred;
+    }
+
+    private int opposite(int t, int a, int b) {
+        for (int k = 3 * t; k < 3 * t + 3; k++) {
+            if (triangles[k] != a && triangles[k] != b) {
+                return triangles[k];
+            }
+        }
+        throw new Error("Degenerate triangle");
+    }
+
+    private int across(int t, int a, int b) {
+        for (int k = 0; k < 3; k++) {
+            int u = triangles[3 * t + k];
+            int v = triangles[3 * t + (k + 1) % 3];
+            if ((u == a && v == b) || (u == b && v == a)) {
+                return neighbors[3 * t + k];
+            }
+        }
+        throw new Error("Edge is not in triangle");
+    }
+
+    private static void reverse(int[] chain) {
+        for (int i = 0, j = chain.length - 1; i < j; i++, j--) {
+            int x = chain[i];
+            chain[i] = chain[j];
+            chain[j] = x;
+        }
+    }
+
+    private static class Funnel {
+
+        // chain from the left to the right end of the edge into the triangle, the shortest paths to both meet at the apex
+        int triangle;
+        int[] chain;
+        int apex;
+
+        Funnel(int triangle, int[] chain, int apex) {
+            this.triangle = triangle;
+            this.chain = chain;
+            this.apex = apex;
+        }
+    }
+}
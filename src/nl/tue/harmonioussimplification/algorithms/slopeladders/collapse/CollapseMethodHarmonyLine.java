@@ -9,6 +9,9 @@
  */
 package nl.tue.harmonioussimplification.algorithms.slopeladders.collapse;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
 import nl.tue.harmonioussimplification.algorithms.util.SlopeLadderUtil;
 import nl.tue.harmonioussimplification.data.output.OutputCoordinate;
 import nl.tue.harmonioussimplification.data.output.SlopeLadder;
@@ -20,9 +23,40 @@ import nl.tue.geometrycore.util.Pair;
 public abstract class CollapseMethodHarmonyLine extends CollapseMethod {
 
     private final boolean LIMIT = true;
+    // check that points compared along a line lie on it
+    private static final boolean DEBUG = false;
     private final int NO_SAMPLES = 500;
+    // adaptive search: every INITIAL_STRIDE-th sample is evaluated, the ranges between evaluated samples are then split,
+    // lowest lower bound first, until no range can improve on the best sample by more than the tolerance, in score units
+    private final int INITIAL_STRIDE = 20;
+    private boolean adaptive = false;
+    private double tolerance = 0;
 
-    protected abstract double computeSingleScore(OutputCoordinate coord, Vector sol);
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    // the score of the placement found is at most the tolerance above the best of all samples
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = Math.max(0, tolerance);
+    }
+
+    // the score of placing the vertex of a rung at sol, with the invariants of the rung computed once per ladder;
+    // a score of at least bound may be returned in place of any score that is not below it
+    protected interface SingleScore {
+
+        double compute(Vector sol, double bound);
+    }
+
+    protected abstract SingleScore prepareSingleScore(OutputCoordinate coord);
 
     @Override
     public boolean compute(SlopeLadder ladder) {
@@ -60,62 +94,220 @@ public abstract class CollapseMethodHarmonyLine extends CollapseMethod {
 //        	3. Sample along perpendicular of perpendicular along area-preserving lines.
 //        	4. keep track of the cheapest (min)
         Vector dir = Vector.subtract(last, first);
+        Sampling sampling = new Sampling(ladder, startCollapse, endCollapse, harmonyLine, first, dir);
+        search(sampling);
+        if (sampling.bestSample == null) {
+            return false;
+        }
+        harmonyLine.setThrough(sampling.bestSample);
+        ladder.setError(sampling.bestScore);
+        ladder.setErrorGap(sampling.gap);
+        for (int r = 0; r < sampling.rungs.size(); r++) {
+            sampling.rungs.get(r).setCollapseLocation(sampling.placement(r));
+        }
+        return true;
+    }
+
+    protected void search(Sampling sampling) {
+        if (adaptive) {
+            sampling.searchAdaptive();
+        } else {
+            sampling.searchExhaustive();
+        }
+    }
+
+    protected class Sampling {
+
+        final Line harmonyLine;
+        final Vector first, dir;
+        // the collapsable coordinates, or rungs, with their area preservation lines and scores,
+        // the ends of their slabs (x and y of the first and last end), the slab directions and lengths,
+        // and the speed of their placements
+        final List<OutputCoordinate> rungs = new ArrayList();
+        final List<Line> areaPresLines = new ArrayList();
+        final List<SingleScore> singleScores = new ArrayList();
+        final double[] slabs;
+        final double[] slabDirs;
+        final double[] slabLengths;
+        final double[] speeds;
+        // scores per rung per sample index, null if not evaluated; see evaluate for the rungs skipped after reaching the bound
+        final double[][] scores = new double[NO_SAMPLES][];
         double bestScore = Double.POSITIVE_INFINITY;
         Vector bestSample = null;
-        for (int i = 0; i < NO_SAMPLES; i++) {
-            Vector samplePoint = Vector.add(first, new Vector(dir.getX() * i / NO_SAMPLES, dir.getY() * i / NO_SAMPLES));
-            harmonyLine.setThrough(samplePoint);
+        // how far the best score may lie above the minimum searched for, over the samples or the whole sample line
+        double gap = 0;
 
-            double totalScore = 0;
+        Sampling(SlopeLadder ladder, int startCollapse, int endCollapse, Line harmonyLine, Vector first, Vector dir) {
+            this.harmonyLine = harmonyLine;
+            this.first = first;
+            this.dir = dir;
             for (int j = startCollapse; j <= endCollapse; j++) {
                 OutputCoordinate coord = ladder.get(j);
                 if (coord.isCollapsable()) {
-                    Line areaPres = SlopeLadderUtil.getAreaPreservationLine(coord);
-                    Vector sol = computeSolPlacement(areaPres, harmonyLine, coord);
-                    double scoreSingle = computeSingleScore(coord, sol);
+                    rungs.add(coord);
+                    areaPresLines.add(SlopeLadderUtil.getAreaPreservationLine(coord));
+                    singleScores.add(prepareSingleScore(coord));
+                }
+            }
+            slabs = new double[4 * rungs.size()];
+            slabDirs = new double[2 * rungs.size()];
+            slabLengths = new double[rungs.size()];
+            speeds = new double[rungs.size()];
+            for (int r = 0; r < rungs.size(); r++) {
+                Line areaPres = areaPresLines.get(r);
+                Pair<Vector, Vector> slab = findFirstLast(rungs.get(r), areaPres);
+                slabs[4 * r] = slab.getFirst().getX();
+                slabs[4 * r + 1] = slab.getFirst().getY();
+                slabs[4 * r + 2] = slab.getSecond().getX();
+                slabs[4 * r + 3] = slab.getSecond().getY();
+                slabDirs[2 * r] = areaPres.getDirection().getX();
+                slabDirs[2 * r + 1] = areaPres.getDirection().getY();
+                slabLengths[r] = rungSlab(r);
+                speeds[r] = rungSpeed(r);
+            }
+        }
+
+        // the placement of the vertex of a rung for the current harmony line
+        Vector placement(int r) {
+            Vector sol = (Vector) harmonyLine.intersect(areaPresLines.get(r)).get(0);
+            if (LIMIT) {
+                double dx = slabDirs[2 * r];
+                double dy = slabDirs[2 * r + 1];
+                double fx = slabs[4 * r];
+                double fy = slabs[4 * r + 1];
+                double lx = slabs[4 * r + 2];
+                double ly = slabs[4 * r + 3];
+                if (DEBUG) {
+                    checkOnLine(areaPresLines.get(r), sol, new Vector(fx, fy));
+                    checkOnLine(areaPresLines.get(r), new Vector(lx, ly), sol);
+                }
+                if (dx * (fx - sol.getX()) + dy * (fy - sol.getY()) > 0) {
+                    return new Vector(fx, fy);
+                } else if (dx * (sol.getX() - lx) + dy * (sol.getY() - ly) > 0) {
+                    return new Vector(lx, ly);
+                }
+            }
+            return sol;
+        }
+
+        Vector samplePoint(int i) {
+            return Vector.add(first, new Vector(dir.getX() * i / NO_SAMPLES, dir.getY() * i / NO_SAMPLES));
+        }
+
+        double[] evaluate(int i, double bound) {
+            if (scores[i] == null) {
+                scores[i] = new double[rungs.size()];
+                evaluate(samplePoint(i), bound, scores[i]);
+            }
+            return scores[i];
+        }
+
+        // the score of the harmony line through the sample point, with the score per rung if rungScores is given;
+        // once the score reaches the bound, the remaining rungs are skipped and get score 0,
+        // so that the scores per rung are lower bounds
+        double evaluate(Vector samplePoint, double bound, double[] rungScores) {
+            harmonyLine.setThrough(samplePoint);
+
+            // a sample only replaces the best one if all its scores are below the best score
+            double totalScore = 0;
+            for (int r = 0; r < rungs.size(); r++) {
+                double scoreSingle = 0;
+                if (totalScore < bound) {
+                    scoreSingle = singleScores.get(r).compute(placement(r), bound);
                     totalScore = Math.max(totalScore, scoreSingle);
                 }
+                if (rungScores != null) {
+                    rungScores[r] = scoreSingle;
+                }
             }
 
             if (totalScore < bestScore) {
                 bestScore = totalScore;
                 bestSample = samplePoint;
             }
+            return totalScore;
         }
-        if (bestSample == null) {
-            return false;
+
+        // distance the placement of a rung moves per unit of the sample parameter, before limiting it to the slab
+        double rungSpeed(int r) {
+            Vector d = areaPresLines.get(r).getDirection().clone();
+            d.normalize();
+            double across = Math.abs(Vector.dotProduct(d, dir));
+            return across == 0 ? Double.POSITIVE_INFINITY : dir.squaredLength() / across;
         }
-        harmonyLine.setThrough(bestSample);
-        for (int i = startCollapse; i <= endCollapse; i++) {
-            OutputCoordinate coord = ladder.get(i);
-            if (coord.isCollapsable()) {
-                Line areaPres = SlopeLadderUtil.getAreaPreservationLine(coord);
 
-                Vector sol = computeSolPlacement(areaPres, harmonyLine, coord);
-                coord.setCollapseLocation(sol);
+        // length of the slab the placement of a rung is limited to
+        double rungSlab(int r) {
+            if (!LIMIT) {
+                return Double.POSITIVE_INFINITY;
             }
+            double x = slabs[4 * r + 2] - slabs[4 * r];
+            double y = slabs[4 * r + 3] - slabs[4 * r + 1];
+            return Math.sqrt(x * x + y * y);
         }
-        return true;
-    }
 
-    private Vector computeSolPlacement(Line areaPres, Line harmonyLine, OutputCoordinate coord) {
-        Vector sol = (Vector) harmonyLine.intersect(areaPres).get(0);
-        if (LIMIT) {
-            sol = limitToSlab(coord, areaPres, sol);
+        // lower bound on the score of the harmony line between two sample parameters width apart, given lower bounds
+        // on the scores per rung at both: the score of a rung is 1-Lipschitz in the placement of its vertex,
+        // which moves at the speed of the rung and stays within its slab
+        double lowerBound(double[] scoresA, double[] scoresB, double width) {
+            double max = 0;
+            for (int r = 0; r < rungs.size(); r++) {
+                // within the interval the placement is at most half its movement away from the nearer end
+                double move = Math.min(speeds[r] * width / 2, slabLengths[r]);
+                double lower = Math.max(Math.max(scoresA[r], scoresB[r]) - slabLengths[r],
+                        Math.min(scoresA[r], scoresB[r]) - move);
+                if (speeds[r] < Double.POSITIVE_INFINITY) {
+                    lower = Math.max(lower, (scoresA[r] + scoresB[r] - speeds[r] * width) / 2);
+                }
+                max = Math.max(max, lower);
+            }
+            return max;
+        }
+
+        void searchExhaustive() {
+            for (int i = 0; i < NO_SAMPLES; i++) {
+                evaluate(samplePoint(i), bestScore, null);
+            }
+        }
+
+        void searchAdaptive() {
+            PriorityQueue<Range> queue = new PriorityQueue<>((x, y) -> Double.compare(x.bound, y.bound));
+            evaluate(0, Double.POSITIVE_INFINITY);
+            for (int prev = 0; prev < NO_SAMPLES - 1; prev += INITIAL_STRIDE) {
+                int next = Math.min(prev + INITIAL_STRIDE, NO_SAMPLES - 1);
+                evaluate(next, bestScore);
+                addRange(queue, prev, next);
+            }
+            while (!queue.isEmpty()) {
+                Range range = queue.poll();
+                if (range.bound >= bestScore - tolerance) {
+                    gap = Math.max(0, bestScore - range.bound);
+                    break;
+                }
+                int m = (range.a + range.b) / 2;
+                evaluate(m, bestScore);
+                addRange(queue, range.a, m);
+                addRange(queue, m, range.b);
+            }
+        }
+
+        private void addRange(PriorityQueue<Range> queue, int a, int b) {
+            if (b - a > 1) {
+                queue.add(new Range(a, b, lowerBound(scores[a], scores[b], (double) (b - a) / NO_SAMPLES)));
+            }
         }
-        return sol;
     }
 
-    private Vector limitToSlab(OutputCoordinate coord, Line areaPresLine, Vector v) {
-        Pair<Vector, Vector> firstLast = findFirstLast(coord, areaPresLine);
-        Vector first = firstLast.getFirst();
-        Vector last = firstLast.getSecond();
-        if (pointOrderedOnLine(areaPresLine, v, first)) {
-            return first;
-        } else if (pointOrderedOnLine(areaPresLine, last, v)) {
-            return last;
-        } else {
-            return v;
+    // the samples strictly between two evaluated ones, with a lower bound on their scores
+    private static class Range {
+
+        final int a, b;
+        final double bound;
+
+        Range(int a, int b, double bound) {
+            this.a = a;
+            this.b = b;
+            this.bound = bound;
         }
     }
 
@@ -196,10 +388,16 @@ public abstract class CollapseMethodHarmonyLine extends CollapseMethod {
         return new Pair<>(first, last);
     }
 
-    private boolean pointOrderedOnLine(Line l, Vector a, Vector b) {
+    private static void checkOnLine(Line l, Vector a, Vector b) {
         if (l.distanceTo(a) > DoubleUtil.EPS || l.distanceTo(b) > DoubleUtil.EPS) {
             throw new Error("points are not on line. Point a: " + a + " point b: " + b + " Line: " + l);
         }
+    }
+
+    private boolean pointOrderedOnLine(Line l, Vector a, Vector b) {
+        if (DEBUG) {
+            checkOnLine(l, a, b);
+        }
         Vector dirLine = l.getDirection();
         Vector dirPoints = Vector.subtract(b, a);
         return Vector.dotProduct(dirLine, dirPoints) > 0;
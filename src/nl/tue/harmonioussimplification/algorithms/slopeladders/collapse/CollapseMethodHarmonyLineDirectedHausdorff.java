@@ -18,12 +18,15 @@ import nl.tue.geometrycore.geometry.linear.PolyLine;
 public class CollapseMethodHarmonyLineDirectedHausdorff extends CollapseMethodHarmonyLine {
 
     @Override
-    protected double computeSingleScore(OutputCoordinate coord, Vector sol) {
-        PolyLine newGeometry = SlopeLadderUtil.newGeometry(coord, sol);
+    protected SingleScore prepareSingleScore(OutputCoordinate coord) {
+        // the old geometry does not depend on the placement, so its edges are indexed once per ladder
+        Vector start = coord.getExtendedStart().getLocation();
+        Vector end = coord.getExtendedEnd().getLocation();
         PolyLine oldGeometry = SlopeLadderUtil.representsGeometry(coord, true);
-        oldGeometry.addVertex(0, newGeometry.getStart());
-        oldGeometry.addVertex(newGeometry.getEnd());
-        return HausdorffDistance.computeDirectedHausdorffDistance(newGeometry, oldGeometry);
+        oldGeometry.addVertex(0, start);
+        oldGeometry.addVertex(end);
+        HausdorffDistance.Target target = new HausdorffDistance.Target(oldGeometry);
+        return (sol, bound) -> HausdorffDistance.computeDirectedHausdorffDistance(new PolyLine(start, sol, end), target, bound);
     }
 
 }
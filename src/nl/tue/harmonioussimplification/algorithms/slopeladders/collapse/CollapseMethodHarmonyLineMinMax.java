@@ -0,0 +1,90 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.slopeladders.collapse;
+
+import java.util.PriorityQueue;
+import nl.tue.geometrycore.geometry.Vector;
+
+public class CollapseMethodHarmonyLineMinMax extends CollapseMethodHarmonyLineDirectedHausdorff {
+
+    // places the harmony line anywhere along the sample line, at the minimum of the largest rung score within a precision
+    // relative to the length of the sampled range. the scores at the ends of an interval of the sample line bound
+    // the score on it from below, see Sampling.lowerBound, so intervals are split, lowest bound first,
+    // until none can improve on the best placement found. this usually takes a few hundred evaluations, but need not
+    // end once intervals cannot be halved anymore: after MAX_EVALUATIONS the samples are searched as well
+    // and the placement is only within the gap left between the bounds and the best score
+    private final double PRECISION = 1e-4;
+    private final int MAX_EVALUATIONS = 10000;
+    // initial intervals, so that a good placement is known before splitting
+    private final int INITIAL_INTERVALS = 16;
+
+    @Override
+    protected void search(Sampling sampling) {
+        double precision = PRECISION * sampling.dir.length();
+
+        if (precision == 0) {
+            sample(sampling, 0, Double.POSITIVE_INFINITY);
+            return;
+        }
+
+        PriorityQueue<Interval> queue = new PriorityQueue<>((x, y) -> Double.compare(x.bound, y.bound));
+        Sample prev = sample(sampling, 0, Double.POSITIVE_INFINITY);
+        for (int i = 1; i <= INITIAL_INTERVALS; i++) {
+            Sample next = sample(sampling, (double) i / INITIAL_INTERVALS, sampling.bestScore);
+            queue.add(new Interval(prev, next, sampling));
+            prev = next;
+        }
+        int evaluations = INITIAL_INTERVALS + 1;
+        while (!queue.isEmpty() && queue.peek().bound < sampling.bestScore - precision) {
+            if (evaluations >= MAX_EVALUATIONS) {
+                super.search(sampling);
+                break;
+            }
+            Interval interval = queue.poll();
+            Sample m = sample(sampling, (interval.a.u + interval.b.u) / 2, sampling.bestScore);
+            evaluations++;
+            queue.add(new Interval(interval.a, m, sampling));
+            queue.add(new Interval(m, interval.b, sampling));
+        }
+        sampling.gap = queue.isEmpty() ? 0 : Math.max(0, sampling.bestScore - queue.peek().bound);
+    }
+
+    private Sample sample(Sampling sampling, double u, double bound) {
+        Vector dir = sampling.dir;
+        Vector point = Vector.add(sampling.first, new Vector(dir.getX() * u, dir.getY() * u));
+        double[] scores = new double[sampling.rungs.size()];
+        sampling.evaluate(point, bound, scores);
+        return new Sample(u, scores);
+    }
+
+    private static class Sample {
+
+        // scores per rung, those skipped after reaching the bound are 0 and remain lower bounds
+        final double u;
+        final double[] scores;
+
+        Sample(double u, double[] scores) {
+            this.u = u;
+            this.scores = scores;
+        }
+    }
+
+    private static class Interval {
+
+        final Sample a, b;
+        final double bound;
+
+        Interval(Sample a, Sample b, Sampling sampling) {
+            this.a = a;
+            this.b = b;
+            this.bound = sampling.lowerBound(a.scores, b.scores, b.u - a.u);
+        }
+    }
+}
@@ -9,10 +9,9 @@
  */
 package nl.tue.harmonioussimplification.algorithms.slopeladders.maintain;
 
+import nl.tue.harmonioussimplification.algorithms.lcfm.CompactSolutionTree;
 import nl.tue.harmonioussimplification.algorithms.lcfm.DiscreteMatching;
 import nl.tue.harmonioussimplification.algorithms.lcfm.Instance;
-import nl.tue.harmonioussimplification.algorithms.lcfm.InstanceNode;
-import nl.tue.harmonioussimplification.algorithms.lcfm.SolutionTree;
 import nl.tue.harmonioussimplification.algorithms.util.SlopeLadderUtil;
 import nl.tue.harmonioussimplification.data.input.InputCoordinate;
 import nl.tue.harmonioussimplification.data.output.OutputCoordinate;
@@ -33,7 +32,7 @@ public class MapMaintainerLCFM extends MapMaintainer {
 
         Instance I = new Instance(newgeom, oldgeom);
         I.computeEuclideanDistances(newgeom, oldgeom);
-        SolutionTree T = new SolutionTree(I);
+        CompactSolutionTree T = new CompactSolutionTree(I);
         T.finish();
         DiscreteMatching DM = new DiscreteMatching(I, T);
 
@@ -42,12 +41,12 @@ public class MapMaintainerLCFM extends MapMaintainer {
         boolean firstc = true;
 
         loop:
-        for (InstanceNode match : DM.getMatching()) {
-            if (match.getJ() != track_original) {
+        for (int k = 0; k < DM.size(); k++) {
+            if (DM.getJ(k) != track_original) {
                 original = original.getCyclicNext();
-                track_original = match.getJ();
+                track_original = DM.getJ(k);
             }
-            switch (match.getI()) {
+            switch (DM.getI(k)) {
                 case 0: // a
                     a.setRepresentsTo(original);
                     break;
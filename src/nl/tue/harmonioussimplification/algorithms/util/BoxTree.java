@@ -0,0 +1,179 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+public class BoxTree<T> {
+
+    // static hierarchy of bounding boxes over a list of items, split at the median of the longer side
+    // nearest queries prune by box distance, so far away queries are as cheap as close ones
+    private static final int LEAF_SIZE = 8;
+
+    private final List<T> items;
+    private final double[] boxes;
+    private final int[] order; // item indices, every node covers a range of them
+    private double[] box; // minX, minY, maxX, maxY per node
+    private int[] begin, end, left, right;
+    private int nodes;
+
+    public interface Distance<T> {
+
+        double distance(T item, Vector point);
+    }
+
+    // boxes holds minX, minY, maxX, maxY for every item
+    public BoxTree(List<T> items, double[] boxes) {
+        this.items = items;
+        this.boxes = boxes;
+        int n = items.size();
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int capacity = Math.max(1, 2 * (n / LEAF_SIZE + 1));
+        box = new double[4 * capacity];
+        begin = new int[capacity];
+        end = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        nodes = 0;
+        if (n > 0) {
+            build(0, n);
+        }
+    }
+
+    public boolean isEmpty() {
+        return nodes == 0;
+    }
+
+    private int build(int from, int to) {
+        int node = nodes++;
+        if (node >= begin.length) {
+            int capacity = 2 * begin.length;
+            box = Arrays.copyOf(box, 4 * capacity);
+            begin = Arrays.copyOf(begin, capacity);
+            end = Arrays.copyOf(end, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+        }
+        begin[node] = from;
+        end[node] = to;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int k = from; k < to; k++) {
+            int i = order[k];
+            minX = Math.min(minX, boxes[4 * i]);
+            minY = Math.min(minY, boxes[4 * i + 1]);
+            maxX = Math.max(maxX, boxes[4 * i + 2]);
+            maxY = Math.max(maxY, boxes[4 * i + 3]);
+        }
+        box[4 * node] = minX;
+        box[4 * node + 1] = minY;
+        box[4 * node + 2] = maxX;
+        box[4 * node + 3] = maxY;
+
+        if (to - from <= LEAF_SIZE) {
+            left[node] = right[node] = -1;
+            return node;
+        }
+
+        // sort the range on box centers along the longer side
+        int axis = maxX - minX >= maxY - minY ? 0 : 1;
+        Integer[] range = new Integer[to - from];
+        for (int k = from; k < to; k++) {
+            range[k - from] = order[k];
+        }
+        Arrays.sort(range, (a, b) -> Double.compare(boxes[4 * a + axis] + boxes[4 * a + 2 + axis], boxes[4 * b + axis] + boxes[4 * b + 2 + axis]));
+        for (int k = from; k < to; k++) {
+            order[k] = range[k - from];
+        }
+
+        int mid = (from + to) / 2;
+        int l = build(from, mid);
+        int r = build(mid, to);
+        left[node] = l;
+        right[node] = r;
+        return node;
+    }
+
+    private double boxDistance(int node, Vector p) {
+        double dx = Math.max(0, Math.max(box[4 * node] - p.getX(), p.getX() - box[4 * node + 2]));
+        double dy = Math.max(0, Math.max(box[4 * node + 1] - p.getY(), p.getY() - box[4 * node + 3]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // adds all items whose box intersects the (closed) query box
+    public void query(double minX, double minY, double maxX, double maxY, Collection<T> result) {
+        if (nodes > 0) {
+            query(0, minX, minY, maxX, maxY, result);
+        }
+    }
+
+    private void query(int node, double minX, double minY, double maxX, double maxY, Collection<T> result) {
+        if (box[4 * node] > maxX || minX > box[4 * node + 2] || box[4 * node + 1] > maxY || minY > box[4 * node + 3]) {
+            return;
+        }
+        if (left[node] < 0) {
+            for (int k = begin[node]; k < end[node]; k++) {
+                int i = order[k];
+                if (boxes[4 * i] <= maxX && minX <= boxes[4 * i + 2] && boxes[4 * i + 1] <= maxY && minY <= boxes[4 * i + 3]) {
+                    result.add(items.get(i));
+                }
+            }
+            return;
+        }
+        query(left[node], minX, minY, maxX, maxY, result);
+        query(right[node], minX, minY, maxX, maxY, result);
+    }
+
+    // index of the nearest item to p, ties to the lowest index, or -1 if no item is at most bound away
+    // the search stops early once an item is found that is closer than stop; result[0] receives the distance
+    public int nearest(Vector p, Distance<T> distance, double bound, double stop, double[] result) {
+        result[0] = bound;
+        if (nodes == 0) {
+            return -1;
+        }
+        int[] best = {-1};
+        search(0, p, distance, stop, best, result);
+        return best[0];
+    }
+
+    private boolean search(int node, Vector p, Distance<T> distance, double stop, int[] best, double[] result) {
+        // boxes are compared with some slack, so that items that tie in the exact distance are not pruned
+        if (boxDistance(node, p) > result[0] * (1 + 1e-9) + 1e-12) {
+            return false;
+        }
+        if (left[node] < 0) {
+            for (int k = begin[node]; k < end[node]; k++) {
+                int i = order[k];
+                double d = distance.distance(items.get(i), p);
+                if (d < result[0] || (d == result[0] && (best[0] < 0 || i < best[0]))) {
+                    result[0] = d;
+                    best[0] = i;
+                    if (d < stop) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        int first = left[node], second = right[node];
+        if (boxDistance(second, p) < boxDistance(first, p)) {
+            first = right[node];
+            second = left[node];
+        }
+        return search(first, p, distance, stop, best, result) || search(second, p, distance, stop, best, result);
+    }
+}
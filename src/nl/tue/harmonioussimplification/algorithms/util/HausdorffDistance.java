@@ -9,6 +9,7 @@
  */
 package nl.tue.harmonioussimplification.algorithms.util;
 
+import java.util.ArrayList;
 import java.util.List;
 import nl.tue.geometrycore.geometry.BaseGeometry;
 import nl.tue.geometrycore.geometry.GeometryType;
@@ -21,11 +22,68 @@ import nl.tue.geometrycore.util.Pair;
 
 public class HausdorffDistance {
 
+    // compare every directed Hausdorff computation to the brute-force one, a difference throws an error
+    private static boolean verify = false;
+
+    public static boolean isVerify() {
+        return verify;
+    }
+
+    public static void setVerify(boolean verify) {
+        HausdorffDistance.verify = verify;
+    }
+
     public static double computeDirectedHausdorffDistance(PolyLine polyA, PolyLine polyB) {
         Pair<Vector, Vector> pair = computeDirectedHausdorffPair(polyA, polyB);
         return pair.getFirst().distanceTo(pair.getSecond());
     }
 
+    // the distance if it is below upperBound, otherwise a value of at least upperBound:
+    // the computation stops once a point of polyA is found that is that far from polyB
+    public static double computeDirectedHausdorffDistance(PolyLine polyA, PolyLine polyB, double upperBound) {
+        return computeDirectedHausdorffDistance(polyA, new Target(polyB), upperBound);
+    }
+
+    // as above, to a polyline that is prepared for repeated computations
+    public static double computeDirectedHausdorffDistance(PolyLine polyA, Target target, double upperBound) {
+        if (target.polyB.edgeCount() == 0 || polyA.vertexCount() == 0) {
+            return computeDirectedHausdorffDistance(polyA, target.polyB);
+        }
+        PrunedSearch search = new PrunedSearch(target, upperBound);
+        search.run(polyA);
+        double dist = search.result.getFirst().distanceTo(search.result.getSecond());
+        if (search.exceeded()) {
+            return Math.max(dist, upperBound);
+        }
+        if (verify) {
+            verify(polyA, target.polyB, search.result);
+        }
+        return dist;
+    }
+
+    // the edges of polyB in a tree, shared by the directed Hausdorff distances to it
+    public static class Target {
+
+        final PolyLine polyB;
+        final List<LineSegment> edges;
+        final BoxTree<LineSegment> tree;
+
+        public Target(PolyLine polyB) {
+            this.polyB = polyB;
+            edges = polyB.edges();
+            double[] boxes = new double[4 * edges.size()];
+            for (int i = 0; i < edges.size(); i++) {
+                Vector a = edges.get(i).getStart();
+                Vector b = edges.get(i).getEnd();
+                boxes[4 * i] = Math.min(a.getX(), b.getX());
+                boxes[4 * i + 1] = Math.min(a.getY(), b.getY());
+                boxes[4 * i + 2] = Math.max(a.getX(), b.getX());
+                boxes[4 * i + 3] = Math.max(a.getY(), b.getY());
+            }
+            tree = new BoxTree(edges, boxes);
+        }
+    }
+
     private static void updatePair(Pair<Vector, Vector> best, Vector pA, BaseGeometry defB, PolyLine polyB) {
 
         Vector b = defB.closestPoint(pA);
@@ -45,10 +103,222 @@ public class HausdorffDistance {
     }
 
     public static Pair<Vector, Vector> computeDirectedHausdorffPair(PolyLine polyA, PolyLine polyB) {
+        Pair<Vector, Vector> result;
+        if (polyB.edgeCount() == 0 || polyA.vertexCount() == 0) {
+            result = computeDirectedHausdorffPairBruteForce(polyA, polyB);
+        } else {
+            result = computeDirectedHausdorffPairPruned(polyA, polyB);
+            if (verify) {
+                verify(polyA, polyB, result);
+            }
+        }
+        return result;
+    }
+
+    private static Pair<Vector, Vector> computeDirectedHausdorffPairPruned(PolyLine polyA, PolyLine polyB) {
+        PrunedSearch search = new PrunedSearch(new Target(polyB), Double.POSITIVE_INFINITY);
+        search.run(polyA);
+        return search.result;
+    }
+
+    private static class PrunedSearch {
+
+        // along an edge of polyA, the distance to polyB is the minimum of convex functions, one per edge of polyB,
+        // so it is largest at an endpoint or where two edges of polyB are equally close: where the edge crosses
+        // the bisector of two of their endpoints or lines, or the parabola between an endpoint and a line.
+        // it is also 1-Lipschitz, so the distances at the ends of a piece of the edge bound it on the piece, which prunes
+        // the piece if it cannot beat the best so far and otherwise limits the edges of polyB that can be closest on it.
+        // pieces are halved until few edges remain, the crossings are then found exactly
+        private static final int LEAF_EDGES = 6;
+        private static final int MAX_DEPTH = 40;
+
+        final List<LineSegment> edges;
+        final BoxTree<LineSegment> tree;
+        final BoxTree.Distance<LineSegment> distance = (edge, p) -> edge.distanceTo(p);
+        final Pair<Vector, Vector> result = new Pair(null, null);
+        final double[] found = new double[1];
+        final double[] roots = new double[18];
+        final double upperBound;
+        double best = -1;
+
+        PrunedSearch(Target target, double upperBound) {
+            this.upperBound = upperBound;
+            edges = target.edges;
+            tree = target.tree;
+        }
+
+        void run(PolyLine polyA) {
+            double[] vertex_dist = new double[polyA.vertexCount()];
+            for (int i = 0; i < polyA.vertexCount() && !exceeded(); i++) {
+                vertex_dist[i] = evaluate(polyA.vertex(i), Double.NEGATIVE_INFINITY);
+            }
+            for (int k = 0; k + 1 < polyA.vertexCount() && !exceeded(); k++) {
+                piece(polyA.vertex(k), polyA.vertex(k + 1), vertex_dist[k], vertex_dist[k + 1], 0);
+            }
+        }
+
+        boolean exceeded() {
+            return best >= upperBound;
+        }
+
+        // distance of c to polyB, the search may stop as soon as it is clear that this is below stop
+        double evaluate(Vector c, double stop) {
+            int e = tree.nearest(c, distance, Double.POSITIVE_INFINITY, stop, found);
+            if (found[0] > best) {
+                best = found[0];
+                result.setFirst(c);
+                result.setSecond(edges.get(e).closestPoint(c));
+            }
+            return found[0];
+        }
+
+        void piece(Vector p, Vector q, double dist_p, double dist_q, int depth) {
+            double length = p.distanceTo(q);
+            double bound = (dist_p + dist_q + length) / 2;
+            if (bound * (1 + 1e-12) <= best || exceeded()) {
+                return;
+            }
+
+            List<LineSegment> near = new ArrayList();
+            tree.query(Math.min(p.getX(), q.getX()) - bound, Math.min(p.getY(), q.getY()) - bound,
+                    Math.max(p.getX(), q.getX()) + bound, Math.max(p.getY(), q.getY()) + bound, near);
+
+            if (near.size() > LEAF_EDGES && depth < MAX_DEPTH) {
+                Vector m = new Vector((p.getX() + q.getX()) / 2, (p.getY() + q.getY()) / 2);
+                double dist_m = evaluate(m, Double.NEGATIVE_INFINITY);
+                piece(p, m, dist_p, dist_m, depth + 1);
+                piece(m, q, dist_m, dist_q, depth + 1);
+                return;
+            }
+
+            for (int i = 0; i < near.size(); i++) {
+                for (int j = i + 1; j < near.size(); j++) {
+                    int count = equidistant(p, q, near.get(i), near.get(j), roots);
+                    for (int r = 0; r < count && !exceeded(); r++) {
+                        Vector c = new Vector(p.getX() + roots[r] * (q.getX() - p.getX()), p.getY() + roots[r] * (q.getY() - p.getY()));
+                        // a point that is closer than the best so far needs no exact nearest edge
+                        evaluate(c, best);
+                    }
+                }
+            }
+        }
+    }
+
+    // fractions along pq where a feature (endpoint or line) of e is as far as a feature of f, stored in roots
+    private static int equidistant(Vector p, Vector q, LineSegment e, LineSegment f, double[] roots) {
+        double dx = q.getX() - p.getX();
+        double dy = q.getY() - p.getY();
+        Vector[] points_e = {e.getStart(), e.getEnd()};
+        Vector[] points_f = {f.getStart(), f.getEnd()};
+        int count = 0;
+
+        // endpoints: the points where (b-a).(2c-a-b) = 0
+        for (Vector a : points_e) {
+            for (Vector b : points_f) {
+                if (a.getX() == b.getX() && a.getY() == b.getY()) {
+                    continue;
+                }
+                double bx = b.getX() - a.getX();
+                double by = b.getY() - a.getY();
+                count = linearRoot(bx * (2 * p.getX() - a.getX() - b.getX()) + by * (2 * p.getY() - a.getY() - b.getY()),
+                        2 * (bx * dx + by * dy), roots, count);
+            }
+        }
+
+        // an endpoint and a line: |c-a|^2 = (n.(c-u))^2 for the unit normal n of the line through u
+        count = parabolaRoots(p, dx, dy, points_e, f, roots, count);
+        count = parabolaRoots(p, dx, dy, points_f, e, roots, count);
+
+        // lines: n1.(c-u1) = +/- n2.(c-u2)
+        double[] ne = normal(e);
+        double[] nf = normal(f);
+        if (ne != null && nf != null) {
+            double se = ne[0] * (p.getX() - e.getStart().getX()) + ne[1] * (p.getY() - e.getStart().getY());
+            double sf = nf[0] * (p.getX() - f.getStart().getX()) + nf[1] * (p.getY() - f.getStart().getY());
+            double de = ne[0] * dx + ne[1] * dy;
+            double df = nf[0] * dx + nf[1] * dy;
+            count = linearRoot(se - sf, de - df, roots, count);
+            count = linearRoot(se + sf, de + df, roots, count);
+        }
+        return count;
+    }
+
+    private static int parabolaRoots(Vector p, double dx, double dy, Vector[] points, LineSegment line, double[] roots, int count) {
+        double[] n = normal(line);
+        if (n == null) {
+            return count;
+        }
+        double s0 = n[0] * (p.getX() - line.getStart().getX()) + n[1] * (p.getY() - line.getStart().getY());
+        double sd = n[0] * dx + n[1] * dy;
+        for (Vector a : points) {
+            double wx = p.getX() - a.getX();
+            double wy = p.getY() - a.getY();
+            double qa = dx * dx + dy * dy - sd * sd;
+            double qb = 2 * (wx * dx + wy * dy - s0 * sd);
+            double qc = wx * wx + wy * wy - s0 * s0;
+            if (Math.abs(qa) <= 1e-12 * (dx * dx + dy * dy)) {
+                // the edge runs parallel to the line
+                count = linearRoot(qc, qb, roots, count);
+                continue;
+            }
+            double disc = qb * qb - 4 * qa * qc;
+            if (disc < 0) {
+                continue;
+            }
+            double sq = Math.sqrt(disc);
+            // avoid cancellation in the smaller root
+            double m = -0.5 * (qb + (qb >= 0 ? sq : -sq));
+            count = addRoot(m / qa, roots, count);
+            if (m != 0) {
+                count = addRoot(qc / m, roots, count);
+            }
+        }
+        return count;
+    }
+
+    private static double[] normal(LineSegment ls) {
+        double x = ls.getEnd().getX() - ls.getStart().getX();
+        double y = ls.getEnd().getY() - ls.getStart().getY();
+        double len = Math.sqrt(x * x + y * y);
+        if (len == 0) {
+            return null;
+        }
+        return new double[]{-y / len, x / len};
+    }
+
+    // root of a0 + t * a1
+    private static int linearRoot(double a0, double a1, double[] roots, int count) {
+        if (a1 == 0) {
+            return count;
+        }
+        return addRoot(-a0 / a1, roots, count);
+    }
+
+    private static int addRoot(double t, double[] roots, int count) {
+        // the endpoints are handled as vertices already
+        if (t > 0 && t < 1) {
+            roots[count++] = t;
+        }
+        return count;
+    }
+
+    private static void verify(PolyLine polyA, PolyLine polyB, Pair<Vector, Vector> result) {
+        double dist = result.getFirst().distanceTo(result.getSecond());
+        Pair<Vector, Vector> brute = computeDirectedHausdorffPairBruteForce(polyA, polyB);
+        double brute_dist = brute.getFirst().distanceTo(brute.getSecond());
+        if (!DoubleUtil.close(dist, polyB.distanceTo(result.getFirst()))) {
+            throw new Error("Directed Hausdorff pair is not at distance " + dist + " from polyB");
+        } else if (!DoubleUtil.close(dist, brute_dist)) {
+            throw new Error("Directed Hausdorff " + dist + " differs from brute force " + brute_dist);
+        }
+    }
+
+    public static Pair<Vector, Vector> computeDirectedHausdorffPairBruteForce(PolyLine polyA, PolyLine polyB) {
         // potential furthest sites are:
         //  - any of the vertices of polyA to their closest point on B
         //  - intersection of (bisector of two vertices of polyB) with polyA to their closest point on polyB
         //  - intersection of (bisector of two edges of polyB) with polyA to their closest point on polyB
+        //  - intersection of (parabola of a vertex and an edge of polyB) with polyA to their closest point on polyB
 
         Pair<Vector, Vector> result = new Pair(null, null);
         for (Vector v : polyA.vertices()) {
@@ -124,6 +394,24 @@ public class HausdorffDistance {
                 }
             }
         }
+
+        double[] roots = new double[2];
+        Vector[] point = new Vector[1];
+        for (LineSegment lsA : polyA.edges()) {
+            Vector p = lsA.getStart();
+            double dx = lsA.getEnd().getX() - p.getX();
+            double dy = lsA.getEnd().getY() - p.getY();
+            for (Vector v : polyB.vertices()) {
+                point[0] = v;
+                for (LineSegment lsB : polyB.edges()) {
+                    // parabola
+                    int count = parabolaRoots(p, dx, dy, point, lsB, roots, 0);
+                    for (int r = 0; r < count; r++) {
+                        updatePair(result, new Vector(p.getX() + roots[r] * dx, p.getY() + roots[r] * dy), v, polyB);
+                    }
+                }
+            }
+        }
         return result;
     }
 }
@@ -9,8 +9,12 @@
  */
 package nl.tue.harmonioussimplification.algorithms.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import nl.tue.harmonioussimplification.data.AbstractCoordinate;
 import nl.tue.harmonioussimplification.data.AbstractIsoline;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.LineSegment;
 import nl.tue.geometrycore.geometry.linear.PolyLine;
 
 public class IsolineCarving<TIso extends AbstractIsoline<TIso, TCoord>, TCoord extends AbstractCoordinate<TIso, TCoord>> {
@@ -30,20 +34,7 @@ public class IsolineCarving<TIso extends AbstractIsoline<TIso, TCoord>, TCoord e
 
         if (isoA.isCyclic() && isoB.isCyclic()) {
             // find closest point for a common cut
-
-            startA = null;
-            startB = null;
-            double dist = Double.POSITIVE_INFINITY;
-            for (TCoord lc : isoA) {
-                for (TCoord uc : isoB) {
-                    double d = lc.getLocation().distanceTo(uc.getLocation());
-                    if (d < dist) {
-                        dist = d;
-                        startA = lc;
-                        startB = uc;
-                    }
-                }
-            }
+            findClosestPair();
 
             pA = carveCycle(startA);
             pB = carveCycle(startB);
@@ -67,7 +58,7 @@ public class IsolineCarving<TIso extends AbstractIsoline<TIso, TCoord>, TCoord e
             endA = isoA.getLast();
 
             startB = endB = findCarve(isoB, pA);
-            pB = carveCycle(findCarve(isoB, pA));
+            pB = carveCycle(startB);
         } else {
             // no need to cut
             pA = (PolyLine) isoA.toGeometry();
@@ -80,7 +71,85 @@ public class IsolineCarving<TIso extends AbstractIsoline<TIso, TCoord>, TCoord e
         }
     }
 
+    private void findClosestPair() {
+        // the vertices of B are put in a tree, each vertex of A looks for its nearest vertex of B within the best distance so far
+        // ties go to the first vertex of A and then the first vertex of B, as when comparing all pairs
+        List<TCoord> coords = new ArrayList();
+        double[] boxes = new double[4 * isoB.size()];
+        for (TCoord uc : isoB) {
+            Vector v = uc.getLocation();
+            int i = coords.size();
+            boxes[4 * i] = boxes[4 * i + 2] = v.getX();
+            boxes[4 * i + 1] = boxes[4 * i + 3] = v.getY();
+            coords.add(uc);
+        }
+        BoxTree<TCoord> tree = new BoxTree(coords, boxes);
+
+        startA = null;
+        startB = null;
+        double dist = Double.POSITIVE_INFINITY;
+        double[] found = new double[1];
+        for (TCoord lc : isoA) {
+            int i = tree.nearest(lc.getLocation(), (uc, p) -> p.distanceTo(uc.getLocation()), dist, Double.NEGATIVE_INFINITY, found);
+            if (i >= 0 && found[0] < dist) {
+                dist = found[0];
+                startA = lc;
+                startB = coords.get(i);
+            }
+        }
+    }
+
     private TCoord findCarve(TIso iso, PolyLine line) {
+        // the edges of the line are put in a tree to estimate the distance of each coordinate to the line,
+        // the distance to the line itself is only computed for coordinates that may be furthest
+        List<LineSegment> edges = line.edges();
+        double[] boxes = new double[4 * edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            Vector a = edges.get(i).getStart();
+            Vector b = edges.get(i).getEnd();
+            boxes[4 * i] = Math.min(a.getX(), b.getX());
+            boxes[4 * i + 1] = Math.min(a.getY(), b.getY());
+            boxes[4 * i + 2] = Math.max(a.getX(), b.getX());
+            boxes[4 * i + 3] = Math.max(a.getY(), b.getY());
+        }
+        BoxTree<LineSegment> tree = new BoxTree(edges, boxes);
+        if (tree.isEmpty()) {
+            return findCarveExhaustive(iso, line);
+        }
+
+        List<TCoord> coords = new ArrayList();
+        double[] estimates = new double[iso.size()];
+        double max_estimate = -1;
+        double[] found = new double[1];
+        for (TCoord coord : iso) {
+            // the estimates may differ from the distance to the line in the last bits,
+            // a coordinate that is clearly closer than the furthest so far needs no exact nearest edge
+            double stop = max_estimate - carveSlack(max_estimate);
+            tree.nearest(coord.getLocation(), (edge, p) -> edge.distanceTo(p), Double.POSITIVE_INFINITY, stop, found);
+            estimates[coords.size()] = found[0];
+            coords.add(coord);
+            max_estimate = Math.max(max_estimate, found[0]);
+        }
+
+        TCoord furthest_coord = null;
+        double dist = -1;
+        for (int i = 0; i < coords.size(); i++) {
+            if (estimates[i] >= max_estimate - carveSlack(max_estimate)) {
+                double d = line.distanceTo(coords.get(i).getLocation());
+                if (d > dist) {
+                    furthest_coord = coords.get(i);
+                    dist = d;
+                }
+            }
+        }
+        return furthest_coord;
+    }
+
+    private static double carveSlack(double distance) {
+        return 1e-9 * (1 + Math.abs(distance));
+    }
+
+    private TCoord findCarveExhaustive(TIso iso, PolyLine line) {
         TCoord furthest_coord = null;
         double dist = -1;
         for (TCoord coord : iso) {
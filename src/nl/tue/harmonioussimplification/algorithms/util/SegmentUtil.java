@@ -0,0 +1,47 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.util;
+
+import nl.tue.geometrycore.util.DoubleUtil;
+
+public class SegmentUtil {
+
+    // allocation-free counterpart of !new LineSegment(p1, q1).intersect(new LineSegment(p2, q2)).isEmpty(),
+    // with the same tolerance: degenerate segments do not intersect anything
+    public static boolean intersects(double p1x, double p1y, double q1x, double q1y, double p2x, double p2y, double q2x, double q2y) {
+        double d1x = q1x - p1x, d1y = q1y - p1y;
+        double d2x = q2x - p2x, d2y = q2y - p2y;
+        double l1 = Math.sqrt(d1x * d1x + d1y * d1y);
+        double l2 = Math.sqrt(d2x * d2x + d2y * d2y);
+        if (!(l1 > 0) || !(l2 > 0)) {
+            return false;
+        }
+
+        double wx = p2x - p1x, wy = p2y - p1y;
+        double cross = d1x * d2y - d1y * d2x;
+        if (Math.abs(cross) <= 1e-12 * l1 * l2) {
+            // parallel: only overlap when collinear
+            if (Math.abs(d1x * wy - d1y * wx) / l1 > DoubleUtil.EPS) {
+                return false;
+            }
+            double dd = d1x * d1x + d1y * d1y;
+            double a = (wx * d1x + wy * d1y) / dd;
+            double s = (d2x * d1x + d2y * d1y) / dd;
+            double lo = Math.max(0, Math.min(a, a + s));
+            double hi = Math.min(1, Math.max(a, a + s));
+            return !(lo > hi + DoubleUtil.EPS / l1);
+        }
+
+        double t = (wx * d2y - wy * d2x) / cross;
+        double u = (wx * d1y - wy * d1x) / cross;
+        double e1 = DoubleUtil.EPS / l1, e2 = DoubleUtil.EPS / l2;
+        return !(t < -e1 || t > 1 + e1 || u < -e2 || u > 1 + e2);
+    }
+}
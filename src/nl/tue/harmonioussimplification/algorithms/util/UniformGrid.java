@@ -0,0 +1,140 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.algorithms.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import nl.tue.geometrycore.geometry.linear.Rectangle;
+
+public class UniformGrid<T> {
+
+    // bucket grid of axis-aligned boxes, items are identified by reference
+    // boxes outside the grid bounds are clamped onto the border cells, so the grid stays correct when geometry moves
+    private final double left, bottom, cellWidth, cellHeight;
+    private final int cols, rows;
+    private final List<T>[] cells;
+    private final IdentityHashMap<T, Entry> entries = new IdentityHashMap();
+
+    public UniformGrid(Rectangle bounds, int expectedItems) {
+        double w = Math.max(bounds.width(), 1e-9);
+        double h = Math.max(bounds.height(), 1e-9);
+        // aim for roughly one item per cell
+        double side = Math.sqrt(w * h / Math.max(expectedItems, 1));
+        left = bounds.getLeft();
+        bottom = bounds.getBottom();
+        cols = Math.max(1, Math.min(4096, (int) Math.ceil(w / side)));
+        rows = Math.max(1, Math.min(4096, (int) Math.ceil(h / side)));
+        cellWidth = w / cols;
+        cellHeight = h / rows;
+        cells = new List[cols * rows];
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public void clear() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = null;
+        }
+        entries.clear();
+    }
+
+    // inserts the item with the given box, replacing its previous box if it was already present
+    public void insert(T item, double minX, double minY, double maxX, double maxY) {
+        remove(item);
+
+        Entry e = new Entry(minX, minY, maxX, maxY);
+        for (int y = e.y0; y <= e.y1; y++) {
+            for (int x = e.x0; x <= e.x1; x++) {
+                int i = y * cols + x;
+                if (cells[i] == null) {
+                    cells[i] = new ArrayList();
+                }
+                cells[i].add(item);
+            }
+        }
+        entries.put(item, e);
+    }
+
+    public void remove(T item) {
+        Entry e = entries.remove(item);
+        if (e == null) {
+            return;
+        }
+        for (int y = e.y0; y <= e.y1; y++) {
+            for (int x = e.x0; x <= e.x1; x++) {
+                List<T> cell = cells[y * cols + x];
+                for (int k = cell.size() - 1; k >= 0; k--) {
+                    if (cell.get(k) == item) {
+                        cell.set(k, cell.get(cell.size() - 1));
+                        cell.remove(cell.size() - 1);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // adds all items whose box intersects the (closed) query box, each item exactly once
+    public void query(double minX, double minY, double maxX, double maxY, Collection<T> result) {
+        int qx0 = col(minX), qx1 = col(maxX);
+        int qy0 = row(minY), qy1 = row(maxY);
+        for (int y = qy0; y <= qy1; y++) {
+            for (int x = qx0; x <= qx1; x++) {
+                List<T> cell = cells[y * cols + x];
+                if (cell == null) {
+                    continue;
+                }
+                for (T item : cell) {
+                    Entry e = entries.get(item);
+                    // report an item only in the first cell shared by its box and the query box
+                    if (x == Math.max(e.x0, qx0) && y == Math.max(e.y0, qy0)
+                            && e.minX <= maxX && minX <= e.maxX && e.minY <= maxY && minY <= e.maxY) {
+                        result.add(item);
+                    }
+                }
+            }
+        }
+    }
+
+    private int col(double x) {
+        int c = (int) Math.floor((x - left) / cellWidth);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int row(double y) {
+        int r = (int) Math.floor((y - bottom) / cellHeight);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    private class Entry {
+
+        final double minX, minY, maxX, maxY;
+        final int x0, x1, y0, y1;
+
+        Entry(double minX, double minY, double maxX, double maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            x0 = col(minX);
+            x1 = col(maxX);
+            y0 = row(minY);
+            y1 = row(maxY);
+        }
+    }
+}
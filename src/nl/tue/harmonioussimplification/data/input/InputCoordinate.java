@@ -18,6 +18,8 @@ public class InputCoordinate extends AbstractCoordinate<InputIsoline, InputCoord
 
     // alignment data
     private final List<MatchInterval> matching = new ArrayList();
+    // dense id within its map, assigned when initializing a simplification
+    private int index = -1;
 
     public InputCoordinate(Vector location, InputIsoline isoline) {
         super(location, isoline);
@@ -27,4 +29,12 @@ public class InputCoordinate extends AbstractCoordinate<InputIsoline, InputCoord
         return matching;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
 }
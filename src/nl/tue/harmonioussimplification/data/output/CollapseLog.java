@@ -0,0 +1,86 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.data.output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CollapseLog {
+
+    // the collapses in order of execution; the first position operations are applied to the map
+    private final List<CollapseOperation> operations = new ArrayList();
+    private final int initialCount;
+    private int position = 0;
+
+    public CollapseLog(int initialCount) {
+        this.initialCount = initialCount;
+    }
+
+    public void add(CollapseOperation operation) {
+        assert position == operations.size();
+        operations.add(operation);
+        position++;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public CollapseOperation get(int index) {
+        return operations.get(index);
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getVertexCount() {
+        return initialCount - position;
+    }
+
+    public int getMinimumVertexCount() {
+        return initialCount - operations.size();
+    }
+
+    public int getMaximumVertexCount() {
+        return initialCount;
+    }
+
+    public boolean undo() {
+        if (position == 0) {
+            return false;
+        }
+        operations.get(--position).undo();
+        return true;
+    }
+
+    public boolean redo() {
+        if (position == operations.size()) {
+            return false;
+        }
+        operations.get(position++).redo();
+        return true;
+    }
+
+    // replays the log such that the map has the given number of vertices, clamped to the logged range
+    public void seek(int vertexCount) {
+        int target = Math.max(0, Math.min(operations.size(), initialCount - vertexCount));
+        while (position > target) {
+            undo();
+        }
+        while (position < target) {
+            redo();
+        }
+    }
+
+    public void seekEnd() {
+        seek(getMinimumVertexCount());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.data.output;
+
+import nl.tue.harmonioussimplification.data.input.InputCoordinate;
+import nl.tue.geometrycore.geometry.Vector;
+
+public class CollapseOperation {
+
+    // a-b-c-d becomes a-c-d: b is removed, c moves and a, c and d represent different parts of the input
+    private final OutputCoordinate a, b, c, d;
+    // successor of b at removal, null if it was the last of its isoline
+    private final OutputCoordinate next;
+    private final Vector oldLocation;
+    private final InputCoordinate oldTo_a, oldFrom_c, oldTo_c, oldFrom_d;
+    private Vector newLocation;
+    private InputCoordinate newTo_a, newFrom_c, newTo_c, newFrom_d;
+
+    // captures the state before collapsing the given coordinate
+    public CollapseOperation(OutputCoordinate coord) {
+        a = coord.getExtendedStart();
+        b = coord;
+        c = coord.getCyclicNext();
+        d = coord.getExtendedEnd();
+        next = coord.getNext();
+        oldLocation = c.getLocation();
+        oldTo_a = a.getRepresentsTo();
+        oldFrom_c = c.getRepresentsFrom();
+        oldTo_c = c.getRepresentsTo();
+        oldFrom_d = d.getRepresentsFrom();
+    }
+
+    // captures the state after collapsing
+    public void finish() {
+        newLocation = c.getLocation();
+        newTo_a = a.getRepresentsTo();
+        newFrom_c = c.getRepresentsFrom();
+        newTo_c = c.getRepresentsTo();
+        newFrom_d = d.getRepresentsFrom();
+    }
+
+    public OutputCoordinate getRemoved() {
+        return b;
+    }
+
+    public OutputCoordinate getMoved() {
+        return c;
+    }
+
+    public Vector getOldLocation() {
+        return oldLocation;
+    }
+
+    public Vector getNewLocation() {
+        return newLocation;
+    }
+
+    public void undo() {
+        if (next == null) {
+            b.getIsoline().addLast(b);
+        } else {
+            b.getIsoline().insertBefore(next, b);
+        }
+        c.setLocation(oldLocation);
+        a.setRepresentsTo(oldTo_a);
+        c.setRepresentsFrom(oldFrom_c);
+        c.setRepresentsTo(oldTo_c);
+        d.setRepresentsFrom(oldFrom_d);
+    }
+
+    public void redo() {
+        b.getIsoline().remove(b);
+        c.setLocation(newLocation);
+        a.setRepresentsTo(newTo_a);
+        c.setRepresentsFrom(newFrom_c);
+        c.setRepresentsTo(newTo_c);
+        d.setRepresentsFrom(newFrom_d);
+    }
+}
@@ -67,8 +67,8 @@ public class OutputCoordinate extends AbstractCoordinate<OutputIsoline, OutputCo
 
     public boolean isCollapsable() {
         OutputIsoline isoline = getIsoline();
-        return // at least 4 vertices in the isoline still
-                isoline.size() > 3
+        return // more vertices than the minimum in the isoline still (at least 4)
+                isoline.size() > isoline.getMinimumSize()
                 // and its either cyclic
                 && (isoline.isCyclic()
                 // or its far enough away from the last points
@@ -20,6 +20,8 @@ public class OutputIsoline extends AbstractIsoline<OutputIsoline, OutputCoordina
     }
 
     private InputIsoline represents;
+    // coordinates are not collapsed below this number of vertices
+    private int minimumSize = 3;
 
     public InputIsoline getRepresents() {
         return represents;
@@ -29,4 +31,12 @@ public class OutputIsoline extends AbstractIsoline<OutputIsoline, OutputCoordina
         this.represents = represents;
     }
 
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = Math.max(3, minimumSize);
+    }
+
 }
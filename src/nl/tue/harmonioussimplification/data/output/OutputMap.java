@@ -21,4 +21,17 @@ public class OutputMap extends AbstractMap<OutputIsoline, OutputCoordinate> {
         return ladders;
     }
 
+    // detached copy of the current geometry, without ladders: it is not affected by further simplification
+    public OutputMap snapshot() {
+        OutputMap copy = new OutputMap();
+        for (OutputIsoline iso : this) {
+            OutputIsoline iso_copy = new OutputIsoline(iso.isCyclic(), iso.getRepresents());
+            copy.add(iso_copy);
+            for (OutputCoordinate coord : iso) {
+                iso_copy.addLast(new OutputCoordinate(coord.getLocation().clone(), iso_copy, coord.getRepresentsFrom(), coord.getRepresentsTo()));
+            }
+        }
+        return copy;
+    }
+
 }
@@ -10,8 +10,9 @@
 package nl.tue.harmonioussimplification.data.output;
 
 import java.util.ArrayList;
+import nl.tue.harmonioussimplification.algorithms.util.SegmentUtil;
 import nl.tue.harmonioussimplification.algorithms.util.SlopeLadderUtil;
-import nl.tue.geometrycore.geometry.linear.LineSegment;
+import nl.tue.geometrycore.geometry.Vector;
 import nl.tue.geometrycore.geometry.linear.PolyLine;
 
 public class SlopeLadder extends ArrayList<OutputCoordinate> {
@@ -20,8 +21,17 @@ public class SlopeLadder extends ArrayList<OutputCoordinate> {
     private boolean dirty = true;
     private boolean contractible = false;
     private double cost = Double.NaN;
+    // directed Hausdorff distance of the new to the represented geometry, as computed by the collapse method
+    private double error = Double.NaN;
+    // how far the error may lie above the minimum the collapse method searches for
+    private double errorGap = Double.NaN;
     private int intersectionCount = 0;
     private boolean selfIntersects = false;
+    // per coordinate: start, collapse location and end of its new geometry; NaN if it was not collapsable
+    private double[] proposal = new double[0];
+    // maintained by SlopeLadderQueue
+    int queueIndex = -1;
+    int queueOrder = 0;
 
     public boolean isDirty() {
         return dirty;
@@ -30,6 +40,8 @@ public class SlopeLadder extends ArrayList<OutputCoordinate> {
     public void setDirty() {
         dirty = true;
         cost = Double.NaN;
+        error = Double.NaN;
+        errorGap = Double.NaN;
         contractible = false;
         intersectionCount = 0;
         selfIntersects = false;
@@ -55,6 +67,22 @@ public class SlopeLadder extends ArrayList<OutputCoordinate> {
         this.cost = cost;
     }
 
+    public double getError() {
+        return error;
+    }
+
+    public void setError(double error) {
+        this.error = error;
+    }
+
+    public double getErrorGap() {
+        return errorGap;
+    }
+
+    public void setErrorGap(double errorGap) {
+        this.errorGap = errorGap;
+    }
+
     public boolean doesNotCauseInteractions() {
         return intersectionCount == 0 && !selfIntersects;
     }
@@ -80,18 +108,21 @@ public class SlopeLadder extends ArrayList<OutputCoordinate> {
         }
 
         // remove interaection counts for LS = [other,other.next]
-        LineSegment LS = new LineSegment(other.getLocation(), other.getCyclicNext().getLocation());
-        for (OutputCoordinate coord : this) {
-            if (!coord.isCollapsable()) {
+        Vector p = other.getLocation();
+        Vector q = other.getCyclicNext().getLocation();
+        double px = p.getX(), py = p.getY(), qx = q.getX(), qy = q.getY();
+        for (int i = 0; i < size(); i++) {
+            OutputCoordinate coord = get(i);
+            if (!coord.isCollapsable() || Double.isNaN(proposal[6 * i])) {
                 // irrelevant
                 continue;
             }
+            int k = 6 * i;
             // does LS share an endpoint with what we would be replacing here?
             // if so, ignore, otherwise check interactions
             OutputCoordinate start = coord.getExtendedStart();
             if (other != start && other.getCyclicNext() != start) {
-                LineSegment LS2 = new LineSegment(start.getLocation(), coord.getCollapseLocation());
-                if (!LS2.intersect(LS).isEmpty()) {
+                if (SegmentUtil.intersects(proposal[k], proposal[k + 1], proposal[k + 2], proposal[k + 3], px, py, qx, qy)) {
                     intersectionCount += inc;
                 }
             }
@@ -99,14 +130,37 @@ public class SlopeLadder extends ArrayList<OutputCoordinate> {
             OutputCoordinate end = coord.getExtendedEnd();
 
             if (other != end && other.getCyclicNext() != end) {
-                LineSegment LS2 = new LineSegment(end.getLocation(), coord.getCollapseLocation());
-                if (!LS2.intersect(LS).isEmpty()) {
+                if (SegmentUtil.intersects(proposal[k + 4], proposal[k + 5], proposal[k + 2], proposal[k + 3], px, py, qx, qy)) {
                     intersectionCount += inc;
                 }
             }
         }
     }
 
+    // caches the endpoints of the new geometry; must be called whenever it changes
+    public void updateProposal() {
+        if (proposal.length != 6 * size()) {
+            proposal = new double[6 * size()];
+        }
+        for (int i = 0; i < size(); i++) {
+            OutputCoordinate coord = get(i);
+            int k = 6 * i;
+            if (coord.isCollapsable() && coord.getCollapseLocation() != null) {
+                Vector start = coord.getExtendedStart().getLocation();
+                Vector loc = coord.getCollapseLocation();
+                Vector end = coord.getExtendedEnd().getLocation();
+                proposal[k] = start.getX();
+                proposal[k + 1] = start.getY();
+                proposal[k + 2] = loc.getX();
+                proposal[k + 3] = loc.getY();
+                proposal[k + 4] = end.getX();
+                proposal[k + 5] = end.getY();
+            } else {
+                proposal[k] = Double.NaN;
+            }
+        }
+    }
+
     public void checkOut(OutputCoordinate old) {
         check(old, -1);
     }
@@ -0,0 +1,151 @@
+/*
+ * Harmonious Simplification
+ * Copyright (C) 2021   
+ * Developed by 
+ *   Arthur van Goethem (a.i.v.goethem@tue.nl) 
+ *   Wouter Meulemans (w.meulemans@tue.nl)
+ * 
+ * Licensed under GNU GPL v3. See provided LICENSE document for more information.
+ */
+package nl.tue.harmonioussimplification.data.output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SlopeLadderQueue {
+
+    // indexed binary min-heap on the cost of the ladders that can currently be collapsed
+    // each ladder stores its own position, so its key can change or it can be dropped in O(log L)
+    // ties are broken on registration order, which mirrors the order in OutputMap.getLadders()
+
+    private static final int ABSENT = -1;
+    private static final int REMOVED = -2;
+
+    private final List<SlopeLadder> heap = new ArrayList();
+    private int registered = 0;
+
+    public void clear() {
+        for (SlopeLadder ladder : heap) {
+            ladder.queueIndex = ABSENT;
+        }
+        heap.clear();
+        registered = 0;
+    }
+
+    public void register(SlopeLadder ladder) {
+        ladder.queueOrder = registered++;
+        ladder.queueIndex = ABSENT;
+    }
+
+    public boolean isRemoved(SlopeLadder ladder) {
+        return ladder.queueIndex == REMOVED;
+    }
+
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    public SlopeLadder peek() {
+        return heap.isEmpty() ? null : heap.get(0);
+    }
+
+    // removes and returns the cheapest ladder; it is reinserted by a later update
+    public SlopeLadder poll() {
+        if (heap.isEmpty()) {
+            return null;
+        }
+        SlopeLadder ladder = heap.get(0);
+        detach(ladder);
+        return ladder;
+    }
+
+    // inserts, repositions or drops the ladder, depending on whether it can be collapsed and its cost
+    public void update(SlopeLadder ladder) {
+        if (ladder.queueIndex == REMOVED) {
+            return;
+        }
+
+        boolean eligible = !ladder.isDirty() && ladder.isContractible() && ladder.doesNotCauseInteractions()
+                && !Double.isNaN(ladder.getCost());
+
+        if (ladder.queueIndex == ABSENT) {
+            if (eligible) {
+                ladder.queueIndex = heap.size();
+                heap.add(ladder);
+                siftUp(ladder.queueIndex);
+            }
+        } else if (eligible) {
+            siftDown(siftUp(ladder.queueIndex));
+        } else {
+            detach(ladder);
+        }
+    }
+
+    // removes the ladder permanently: later updates are ignored
+    public void remove(SlopeLadder ladder) {
+        if (ladder.queueIndex >= 0) {
+            detach(ladder);
+        }
+        ladder.queueIndex = REMOVED;
+    }
+
+    private void detach(SlopeLadder ladder) {
+        int index = ladder.queueIndex;
+        SlopeLadder last = heap.remove(heap.size() - 1);
+        ladder.queueIndex = ABSENT;
+        if (last != ladder) {
+            place(last, index);
+            siftDown(siftUp(index));
+        }
+    }
+
+    private boolean less(SlopeLadder a, SlopeLadder b) {
+        return a.getCost() < b.getCost() || (a.getCost() == b.getCost() && a.queueOrder < b.queueOrder);
+    }
+
+    private void place(SlopeLadder ladder, int index) {
+        heap.set(index, ladder);
+        ladder.queueIndex = index;
+    }
+
+    private int siftUp(int index) {
+        SlopeLadder ladder = heap.get(index);
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            SlopeLadder p = heap.get(parent);
+            if (!less(ladder, p)) {
+                break;
+            }
+            place(p, index);
+            index = parent;
+        }
+        place(ladder, index);
+        return index;
+    }
+
+    private int siftDown(int index) {
+        SlopeLadder ladder = heap.get(index);
+        int n = heap.size();
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && less(heap.get(child + 1), heap.get(child))) {
+                child++;
+            }
+            SlopeLadder c = heap.get(child);
+            if (!less(c, ladder)) {
+                break;
+            }
+            place(c, index);
+            index = child;
+        }
+        place(ladder, index);
+        return index;
+    }
+}